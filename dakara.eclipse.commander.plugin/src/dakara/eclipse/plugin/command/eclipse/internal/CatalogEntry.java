@@ -0,0 +1,42 @@
+package dakara.eclipse.plugin.command.eclipse.internal;
+
+import org.eclipse.ui.internal.quickaccess.QuickAccessElement;
+
+import dakara.eclipse.plugin.stringscore.StringCursorPrimitive;
+
+/*
+ * Values of a catalog element computed once when the catalog is built, instead of on every ranking and render.
+ * - label and provider name are interned, provider names and many labels repeat across elements
+ * - analyzed forms are ready for scoring, searchText is the label and provider name joined by a space
+ * - analyzed forms are null when the text is blank, which never matches
+ */
+@SuppressWarnings("restriction")
+public final class CatalogEntry {
+	public final QuickAccessElement element;
+	public final String label;
+	public final String providerName;
+	public final String sortKey;
+	public final StringCursorPrimitive analyzedLabel;
+	public final StringCursorPrimitive analyzedProviderName;
+	public final StringCursorPrimitive analyzedSearchText;
+
+	public CatalogEntry(QuickAccessElement element) {
+		this.element = element;
+		this.label = intern(element.getLabel());
+		this.providerName = intern(element.getProvider().getName());
+		this.sortKey = label;
+		this.analyzedLabel = analyze(label);
+		this.analyzedProviderName = analyze(providerName);
+		this.analyzedSearchText = analyze(label + " " + providerName);
+	}
+
+	private static String intern(String text) {
+		return text == null ? "" : text.intern();
+	}
+
+	private static StringCursorPrimitive analyze(String text) {
+		final String trimmed = text.trim();
+		if (trimmed.isEmpty()) return null;
+		return new StringCursorPrimitive(trimmed);
+	}
+}
@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.eclipse.core.commands.Command;
@@ -24,12 +25,17 @@ import org.eclipse.ui.internal.quickaccess.QuickAccessMessages;
 import org.eclipse.ui.internal.quickaccess.QuickAccessProvider;
 
 @SuppressWarnings("restriction")
+/*
+ * All defined commands are listed.  Whether a command can execute is evaluated lazily, only for commands that
+ * are about to be shown, and cached until the evaluation context changes.
+ */
 public class CommandProvider extends QuickAccessProvider {
-	private final IEvaluationContext evaluationContext;
+	private volatile IEvaluationContext evaluationContext;
 	private final IHandlerService handlerService;
 	private final ICommandService commandService;
-	private final EHandlerService ehandlerService;
+	private volatile EHandlerService ehandlerService;
 	private final Map<String, QuickAccessElement> commandById;
+	private final Map<String, Boolean> enabledByCommandId = new ConcurrentHashMap<>();
 	
 	public CommandProvider(IEvaluationContext evaluationContext) {
 		this.evaluationContext = evaluationContext;
@@ -39,6 +45,31 @@ public class CommandProvider extends QuickAccessProvider {
 		commandService  = context.get(ICommandService.class);
 		commandById = new HashMap<>();
 	}
+	
+	/*
+	 * The active context changed, such as a part activation.  Cached enablement is evaluated again on next use.
+	 */
+	public CommandProvider setEvaluationContext(IEvaluationContext evaluationContext) {
+		this.ehandlerService = ((ExpressionContext) evaluationContext).eclipseContext.get(EHandlerService.class);
+		this.evaluationContext = evaluationContext;
+		enabledByCommandId.clear();
+		return this;
+	}
+	
+	/*
+	 * Cached enablement, null when not yet evaluated in the current context
+	 */
+	public Boolean getEnablement(CommandElement element) {
+		return enabledByCommandId.get(element.getParameterizedCommand().getId());
+	}
+	
+	/*
+	 * Evaluates handler enablement when not cached, which must happen on the UI thread
+	 */
+	public boolean isEnabled(CommandElement element) {
+		final Command command = element.getParameterizedCommand().getCommand();
+		return enabledByCommandId.computeIfAbsent(command.getId(), commandId -> ehandlerService.canExecute(new ParameterizedCommand(command, null)));
+	}
 
 	@Override
 	public String getId() {
@@ -53,9 +84,9 @@ public class CommandProvider extends QuickAccessProvider {
 	
 	public QuickAccessElement[] getElements() {
 		return Arrays.stream(commandService.getDefinedCommands())
-			  .map(command -> new ParameterizedCommand(command, null))
-			  .filter(ehandlerService::canExecute)
-			  .flatMap(paramCommand -> getCombinations(paramCommand.getCommand()).stream().filter( item -> item != null) )
+			  .map(this::getCombinations)
+			  .filter(combinations -> combinations != null)
+			  .flatMap(combinations -> combinations.stream().filter( item -> item != null) )
 			  .map(paramCommand -> new CommandElement((ParameterizedCommand) paramCommand, this))
 			  .peek(element -> commandById.put(element.getId(), element))
 			  .collect(Collectors.toList())
@@ -2,13 +2,31 @@ package dakara.eclipse.plugin.command.eclipse.internal;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.eclipse.core.commands.contexts.IContextManagerListener;
 import org.eclipse.e4.core.commands.ExpressionContext;
 import org.eclipse.e4.ui.model.application.MApplication;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IPartListener;
+import org.eclipse.ui.IPerspectiveDescriptor;
+import org.eclipse.ui.IPerspectiveListener;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchPart;
+import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.contexts.IContextService;
 import org.eclipse.ui.internal.WorkbenchWindow;
 import org.eclipse.ui.internal.quickaccess.ActionProvider;
 import org.eclipse.ui.internal.quickaccess.PerspectiveProvider;
@@ -19,47 +37,368 @@ import org.eclipse.ui.internal.quickaccess.QuickAccessProvider;
 import org.eclipse.ui.internal.quickaccess.ViewProvider;
 import org.eclipse.ui.internal.quickaccess.WizardProvider;
 
+import dakara.eclipse.plugin.command.Constants;
+import dakara.eclipse.plugin.log.EclipsePluginLogger;
+import dakara.eclipse.plugin.stringscore.RankedItem;
+
 @SuppressWarnings("restriction")
+/*
+ * Command catalog of all quick access providers.  Can be built on any thread, workbench state is only accessed on the UI thread.
+ * - providers that only read registries or models are enumerated concurrently on background threads
+ * - UI bound providers are enumerated on the UI thread at the same time
+ * - initialization waits for each background provider up to its own time budget, providers that take longer are added as they finish
+ * - the catalog is an immutable snapshot kept in provider order, replaced as providers finish.  Catalog listeners are notified.
+ * - time taken by each provider is recorded, providers over their budget are logged
+ * - the workbench providers are marked stale when parts or perspectives change, and enumerated again on refresh
+ * - command enablement is evaluated asynchronously on the UI thread, only for the rows the view port needs.  Commands
+ *   are hidden until evaluated.
+ */
 public class EclipseCommandProvider {
+	private static final long PROVIDER_BUDGET_MILLIS = 250;
+	// rows evaluated before the view port of the list is known
+	private static final int INITIAL_VIEW_PORT_ROWS = 64;
+	private final EclipsePluginLogger logger = new EclipsePluginLogger(Constants.BUNDLE_ID);
 	private List<QuickAccessProvider> providers;
-	private List<QuickAccessElement> commandsAvailableWithCurrentContext = new ArrayList<>();
-	private Map<String, QuickAccessElement> commandLookupByProviderAndId = new HashMap<>();
+	private List<QuickAccessProvider> backgroundProviders;
+	private volatile List<QuickAccessElement> commandsAvailableWithCurrentContext = Collections.emptyList();
+	private QuickAccessElement[][] elementsByProvider = new QuickAccessElement[0][];
+	private int catalogGeneration = 0;
+	// incremented each time elements are published
+	private volatile int catalogVersion = 0;
+	private final Map<String, QuickAccessElement> commandLookupByProviderAndId = new ConcurrentHashMap<>();
+	// replaced, never modified, so it can be read without locking
+	private volatile Map<QuickAccessElement, CatalogEntry> catalogEntries = new IdentityHashMap<>();
+	private final Map<String, Long> providerTimings = new ConcurrentHashMap<>();
+	private final List<Runnable> catalogListeners = new CopyOnWriteArrayList<>();
+	private final List<Runnable> enablementListeners = new CopyOnWriteArrayList<>();
+	private final Set<CommandElement> pendingEnablement = ConcurrentHashMap.newKeySet();
+	private final AtomicBoolean enablementEvaluationScheduled = new AtomicBoolean();
+	private volatile boolean evaluationContextStale = false;
+	// rows the view port of the list needs, only grows
+	private volatile int viewPortRows = INITIAL_VIEW_PORT_ROWS;
+	private CommandProvider commandProvider;
+	private WorkbenchWindow workbenchWindow;
+	private volatile boolean workbenchProvidersStale = false;
+	private final IPartListener partActivationListener = new IPartListener() {
+		public void partActivated(IWorkbenchPart part) 		{ contextChanged(); workbenchProvidersStale = true; }
+		public void partBroughtToTop(IWorkbenchPart part) 	{}
+		public void partClosed(IWorkbenchPart part) 		{ workbenchProvidersStale = true; }
+		public void partDeactivated(IWorkbenchPart part) 	{}
+		public void partOpened(IWorkbenchPart part) 		{ workbenchProvidersStale = true; }
+	};
+	private final IPerspectiveListener perspectiveListener = new IPerspectiveListener() {
+		public void perspectiveActivated(IWorkbenchPage page, IPerspectiveDescriptor perspective) 				{ workbenchProvidersStale = true; }
+		public void perspectiveChanged(IWorkbenchPage page, IPerspectiveDescriptor perspective, String changeId) 	{ workbenchProvidersStale = true; }
+	};
+	private final IContextManagerListener contextListener = event -> contextChanged();
 	
 	public EclipseCommandProvider() {
 		initializeWithCurrentContext();
 	}
 
 	public EclipseCommandProvider initializeWithCurrentContext() {
-		commandsAvailableWithCurrentContext.clear();
+		syncExecOnUi(this::createProviders);
+		enumerateProviders();
+		syncExecOnUi(this::addContextListeners);
 		
-		WorkbenchWindow workbenchWindow = (WorkbenchWindow) PlatformUI.getWorkbench().getActiveWorkbenchWindow();
+		return this;
+	}
+	
+	private void createProviders() {
+		removeContextListeners();
+		workbenchWindow = (WorkbenchWindow) PlatformUI.getWorkbench().getActiveWorkbenchWindow();
 		final org.eclipse.e4.ui.model.application.ui.basic.MWindow model = workbenchWindow.getModel();
+		commandProvider = new CommandProvider(new ExpressionContext(model.getContext().getActiveLeaf()));
 
 		providers = new ArrayList<>();
 		//providers.add(new EditorProvider());
 		providers.add(new ViewProvider(model.getContext().get(MApplication.class), model));
 		providers.add(new PerspectiveProvider());
-		providers.add(new CommandProvider(new ExpressionContext(model.getContext().getActiveLeaf())));
+		providers.add(commandProvider);
 		providers.add(new ActionProvider());
 		providers.add(new PreferenceProvider());
 		providers.add(new PropertiesProvider());
 		providers.add(new WizardProvider());
 		providers.add(new LaunchProvider());
+		// these only read the command and launch managers, the others use workbench state and must run on the UI thread
+		backgroundProviders = Arrays.asList(commandProvider, providers.get(providers.size() - 1));
+	}
+	
+	private static void syncExecOnUi(Runnable runnable) {
+		if (Display.getCurrent() != null) runnable.run();
+		else PlatformUI.getWorkbench().getDisplay().syncExec(runnable);
+	}
+	
+	private void enumerateProviders() {
+		final int generation;
+		synchronized (this) {
+			generation = ++catalogGeneration;
+			elementsByProvider = new QuickAccessElement[providers.size()][];
+			workbenchProvidersStale = false;
+			commandsAvailableWithCurrentContext = Collections.emptyList();
+			commandLookupByProviderAndId.clear();
+			catalogEntries = new IdentityHashMap<>();
+		}
 		
-		getAllCommands();
+		final List<CompletableFuture<Void>> backgroundEnumerations = new ArrayList<>();
+		final long[] startNanos = new long[backgroundProviders.size()];
+		for (int index = 0; index < backgroundProviders.size(); index++) {
+			final QuickAccessProvider provider = backgroundProviders.get(index);
+			startNanos[index] = System.nanoTime();
+			backgroundEnumerations.add(CompletableFuture.runAsync(() -> {
+				if (enumerateProvider(provider, generation)) notifyCatalogListeners();
+			}));
+		}
 		
-		return this;
+		syncExecOnUi(() -> {
+			if (enumerateWorkbenchProviders(generation)) notifyCatalogListeners();
+		});
+		
+		// each provider has its own budget from when it started, time spent on the UI providers counts against it
+		for (int index = 0; index < backgroundEnumerations.size(); index++) {
+			final long remainingNanos = TimeUnit.MILLISECONDS.toNanos(PROVIDER_BUDGET_MILLIS) - (System.nanoTime() - startNanos[index]);
+			try {
+				backgroundEnumerations.get(index).get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				// the provider is added to the catalog when it finishes
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				logger.error("Problem occurred enumerating commands of " + backgroundProviders.get(index).getName(), e);
+			}
+		}
 	}
-
-	public List<QuickAccessElement> getAllCommands() {
-		if (commandsAvailableWithCurrentContext.isEmpty()) {
-			for (QuickAccessProvider provider : providers) {
-				commandsAvailableWithCurrentContext.addAll(Arrays.asList(provider.getElements()));
+	
+	/*
+	 * Enumerates the workbench providers again when views, editors or perspectives changed since they were enumerated.
+	 * Must be called on the UI thread.  Returns whether the catalog was refreshed, catalog listeners are not notified.
+	 */
+	public boolean refreshWorkbenchProviders() {
+		if (!workbenchProvidersStale) return false;
+		workbenchProvidersStale = false;
+		final int generation;
+		synchronized (this) {
+			generation = catalogGeneration;
+		}
+		for (QuickAccessProvider provider : providers) {
+			// the quick access providers cache their elements until reset
+			if (!backgroundProviders.contains(provider)) provider.reset();
+		}
+		return enumerateWorkbenchProviders(generation);
+	}
+	
+	private boolean enumerateWorkbenchProviders(int generation) {
+		boolean published = false;
+		for (QuickAccessProvider provider : providers) {
+			if (!backgroundProviders.contains(provider)) published |= enumerateProvider(provider, generation);
+		}
+		return published;
+	}
+	
+	private void notifyCatalogListeners() {
+		for (Runnable catalogListener : catalogListeners) {
+			catalogListener.run();
+		}
+	}
+	
+	private boolean enumerateProvider(QuickAccessProvider provider, int generation) {
+		final long startNanos = System.nanoTime();
+		QuickAccessElement[] elements;
+		try {
+			elements = provider.getElements();
+		} catch (Throwable e) {
+			logger.error("Problem occurred enumerating commands of " + provider.getName(), e);
+			elements = new QuickAccessElement[0];
+		}
+		final CatalogEntry[] entries = new CatalogEntry[elements.length];
+		for (int index = 0; index < elements.length; index++) {
+			entries[index] = new CatalogEntry(elements[index]);
+		}
+		final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		providerTimings.put(provider.getName(), millis);
+		if (millis > PROVIDER_BUDGET_MILLIS) logger.warn("Command provider " + provider.getName() + " took " + millis + "ms");
+		
+		return publishElements(provider, elements, entries, generation);
+	}
+	
+	private synchronized boolean publishElements(QuickAccessProvider provider, QuickAccessElement[] elements, CatalogEntry[] entries, int generation) {
+		// a newer enumeration was started
+		if (generation != catalogGeneration) return false;
+		
+		final int providerIndex = providers.indexOf(provider);
+		final Map<QuickAccessElement, CatalogEntry> catalogEntries = new IdentityHashMap<>(this.catalogEntries);
+		// elements of a previous enumeration of the provider are replaced
+		if (elementsByProvider[providerIndex] != null) {
+			for (QuickAccessElement command : elementsByProvider[providerIndex]) {
+				commandLookupByProviderAndId.remove(command.getProvider().getId() + command.getId(), command);
+				catalogEntries.remove(command);
 			}
-			for (QuickAccessElement command: commandsAvailableWithCurrentContext) {
-				commandLookupByProviderAndId.put(command.getProvider().getId() + command.getId(), command);
+		}
+		elementsByProvider[providerIndex] = elements;
+		final List<QuickAccessElement> commands = new ArrayList<>(commandsAvailableWithCurrentContext.size() + elements.length);
+		for (QuickAccessElement[] providerElements : elementsByProvider) {
+			if (providerElements != null) commands.addAll(Arrays.asList(providerElements));
+		}
+		for (QuickAccessElement command : elements) {
+			commandLookupByProviderAndId.put(command.getProvider().getId() + command.getId(), command);
+		}
+		for (CatalogEntry entry : entries) {
+			catalogEntries.put(entry.element, entry);
+		}
+		this.catalogEntries = catalogEntries;
+		commandsAvailableWithCurrentContext = Collections.unmodifiableList(commands);
+		catalogVersion++;
+		return true;
+	}
+	
+	/*
+	 * Cached values of an element of the catalog.  Elements not in the catalog get an uncached entry.
+	 */
+	public CatalogEntry getCatalogEntry(QuickAccessElement element) {
+		final CatalogEntry entry = catalogEntries.get(element);
+		if (entry != null) return entry;
+		return new CatalogEntry(element);
+	}
+	
+	/*
+	 * Changes each time the catalog changes.  Compare with a version read earlier to find changes a listener added later missed.
+	 */
+	public int getCatalogVersion() {
+		return catalogVersion;
+	}
+	
+	/*
+	 * Notified, on the thread of the provider, each time providers finishing late are added to the catalog.
+	 * Not notified by refreshWorkbenchProviders.
+	 */
+	public EclipseCommandProvider addCatalogListener(Runnable catalogListener) {
+		catalogListeners.add(catalogListener);
+		return this;
+	}
+	
+	/*
+	 * Milliseconds each provider took to enumerate its elements, by provider name
+	 */
+	public Map<String, Long> getProviderTimings() {
+		return Collections.unmodifiableMap(providerTimings);
+	}
+	
+	private void addContextListeners() {
+		workbenchWindow.getPartService().addPartListener(partActivationListener);
+		workbenchWindow.addPerspectiveListener(perspectiveListener);
+		IContextService contextService = workbenchWindow.getService(IContextService.class);
+		if (contextService != null) contextService.addContextManagerListener(contextListener);
+	}
+	
+	private void removeContextListeners() {
+		if (workbenchWindow == null) return;
+		workbenchWindow.getPartService().removePartListener(partActivationListener);
+		workbenchWindow.removePerspectiveListener(perspectiveListener);
+		IContextService contextService = workbenchWindow.getService(IContextService.class);
+		if (contextService != null) contextService.removeContextManagerListener(contextListener);
+	}
+	
+	/*
+	 * Notified on the UI thread when commands were evaluated, the context changed or the view port needs more rows
+	 */
+	public EclipseCommandProvider addEnablementListener(Runnable enablementListener) {
+		enablementListeners.add(enablementListener);
+		return this;
+	}
+	
+	public boolean belongsTo(IWorkbenchWindow window) {
+		return workbenchWindow != null && workbenchWindow == window;
+	}
+	
+	/*
+	 * Can be called on any thread, the listeners are removed on the UI thread
+	 */
+	public void dispose() {
+		catalogListeners.clear();
+		enablementListeners.clear();
+		if (PlatformUI.getWorkbench().getDisplay().isDisposed()) return;
+		syncExecOnUi(() -> {
+			removeContextListeners();
+			workbenchWindow = null;
+		});
+	}
+	
+	/*
+	 * Command enablement depends on the active part and contexts.  Parts activate often while the dialog is hidden,
+	 * so the evaluation context is only replaced, and cached enablement dropped, when enablement is next needed.
+	 */
+	private void contextChanged() {
+		evaluationContextStale = true;
+	}
+	
+	/*
+	 * Must be called on the UI thread.  Returns whether cached enablement was dropped.
+	 */
+	public boolean refreshEvaluationContext() {
+		if (!evaluationContextStale || workbenchWindow == null) return false;
+		evaluationContextStale = false;
+		commandProvider.setEvaluationContext(new ExpressionContext(workbenchWindow.getModel().getContext().getActiveLeaf()));
+		return true;
+	}
+	
+	/*
+	 * Keeps commands known to execute in the current context, without blocking on the UI thread.  Commands not yet
+	 * evaluated are hidden, those that would fall within the view port are evaluated on the UI thread afterwards and
+	 * enablement listeners are notified, so the list is filtered again.
+	 */
+	public List<RankedItem<QuickAccessElement>> filterEnabled(List<RankedItem<QuickAccessElement>> rankedItems) {
+		final List<RankedItem<QuickAccessElement>> enabledItems = new ArrayList<>(rankedItems.size());
+		final int viewPortRows = this.viewPortRows;
+		int pendingRows = 0;
+		for (RankedItem<QuickAccessElement> rankedItem : rankedItems) {
+			if (rankedItem.dataItem instanceof CommandElement) {
+				final CommandElement element = (CommandElement) rankedItem.dataItem;
+				final Boolean enabled = commandProvider.getEnablement(element);
+				if (enabled == null) {
+					if (enabledItems.size() + pendingRows < viewPortRows) {
+						pendingEnablement.add(element);
+						pendingRows++;
+					}
+					continue;
+				}
+				if (!enabled) continue;
 			}
+			enabledItems.add(rankedItem);
 		}
+		if (pendingRows > 0 || evaluationContextStale) scheduleEnablementEvaluation();
+		return enabledItems;
+	}
+	
+	/*
+	 * Called on the UI thread as the view port of the list moves.  When it needs more rows than were evaluated, the
+	 * list is filtered again so that the commands shown next are evaluated.
+	 */
+	public void setViewPortRows(int rows) {
+		if (rows <= viewPortRows) return;
+		viewPortRows = rows;
+		enablementListeners.forEach(Runnable::run);
+	}
+	
+	private void scheduleEnablementEvaluation() {
+		if (!enablementEvaluationScheduled.compareAndSet(false, true)) return;
+		final Display display = PlatformUI.getWorkbench().getDisplay();
+		if (display.isDisposed()) return;
+		display.asyncExec(() -> {
+			enablementEvaluationScheduled.set(false);
+			if (workbenchWindow == null) return;
+			boolean changed = refreshEvaluationContext();
+			// evaluated commands were hidden, they are shown or stay hidden after the list is filtered again
+			for (CommandElement element : pendingEnablement) {
+				pendingEnablement.remove(element);
+				commandProvider.isEnabled(element);
+				changed = true;
+			}
+			if (changed) enablementListeners.forEach(Runnable::run);
+		});
+	}
+	
+	public List<QuickAccessElement> getAllCommands() {
 		return commandsAvailableWithCurrentContext;
 	}
 	
@@ -1,34 +1,58 @@
 package dakara.eclipse.plugin.command.handlers;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 import org.eclipse.core.commands.AbstractHandler;
 import org.eclipse.core.commands.ExecutionEvent;
 import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IStartup;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.handlers.HandlerUtil;
 import org.eclipse.ui.internal.quickaccess.QuickAccessElement;
 
 import dakara.eclipse.plugin.command.Constants;
 import dakara.eclipse.plugin.command.eclipse.internal.EclipseCommandProvider;
+import dakara.eclipse.plugin.command.settings.HistoryJournal;
 import dakara.eclipse.plugin.command.settings.PersistedWorkingSet;
 import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryEntry;
 import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
+import dakara.eclipse.plugin.kavi.picklist.InputCommand;
 import dakara.eclipse.plugin.kavi.picklist.InternalCommandContextProvider;
 import dakara.eclipse.plugin.kavi.picklist.InternalCommandContextProviderFactory;
 import dakara.eclipse.plugin.kavi.picklist.KaviPickListDialog;
+import dakara.eclipse.plugin.log.EclipsePluginLogger;
+import dakara.eclipse.plugin.platform.EclipseWorkbench;
 import dakara.eclipse.plugin.stringscore.FieldResolver;
 import dakara.eclipse.plugin.stringscore.ListRankAndFilter;
 
 
 @SuppressWarnings("restriction")
-public class CommanderHandler extends AbstractHandler {
+public class CommanderHandler extends AbstractHandler implements IStartup {
+	private static final EclipsePluginLogger logger = new EclipsePluginLogger(Constants.BUNDLE_ID);
+	// catalog built at start up, taken by the first invocation.  The startup and handler extensions are different instances.
+	private static final AtomicReference<EclipseCommandProvider> prewarmedCommandProvider = new AtomicReference<>();
+	// once a dialog was built the prewarmed catalog is no longer published, see earlyStartup
+	private static final AtomicBoolean dialogBuilt = new AtomicBoolean(false);
 	private EclipseCommandProvider eclipseCommandProvider;
 	private KaviPickListDialog<QuickAccessElement> kaviPickList;
+	private IWorkbenchWindow dialogWorkbenchWindow;
+	private PersistedWorkingSet<QuickAccessElement> historyStore;
+	// frecency boosts are computed once each time the dialog is shown
+	private Runnable updateBoosts;
 
 	/* TODO's
-	 * - allow other commands to reuse dialog to show other lists for faster speed
+	 * - allow other commands to reuse dialog to show other lists
 	 * - need ability to issue internal commands on lists
 	 *   - for example, need command to remove an item from history
 	 * 
@@ -36,20 +60,112 @@ public class CommanderHandler extends AbstractHandler {
 	 * @see org.eclipse.core.commands.IHandler#execute(org.eclipse.core.commands.ExecutionEvent)
 	 */
 	public Object execute(ExecutionEvent event) throws ExecutionException {
-		initialize(HandlerUtil.getActiveWorkbenchWindowChecked(event).getShell().getDisplay());
+		IWorkbenchWindow workbenchWindow = HandlerUtil.getActiveWorkbenchWindowChecked(event);
+		if (isDialogWarm(workbenchWindow)) {
+			showWarmDialog();
+		} else {
+			disposeDialog();
+			initialize(workbenchWindow.getShell().getDisplay());
+			dialogWorkbenchWindow = workbenchWindow;
+		}
 		return null;
 	}
 	
+	/*
+	 * The dialog is only hidden when it closes.  It is reused, along with the analyzed command catalog, history and
+	 * list caches, as long as it belongs to the active workbench window and its shell is alive.
+	 */
+	private boolean isDialogWarm(IWorkbenchWindow workbenchWindow) {
+		if (kaviPickList == null || dialogWorkbenchWindow != workbenchWindow) return false;
+		return kaviPickList.getShell() != null && !kaviPickList.getShell().isDisposed();
+	}
+	
+	private void showWarmDialog() {
+		// views, perspectives and actions may have changed while the dialog was hidden
+		if (eclipseCommandProvider.refreshWorkbenchProviders()) historyStore.resolveHistoryAgain();
+		eclipseCommandProvider.refreshEvaluationContext();
+		updateBoosts.run();
+		kaviPickList.setCurrentProvider("working");
+		kaviPickList.show();
+	}
+	
+	private void disposeDialog() {
+		if (kaviPickList != null && kaviPickList.getShell() != null && !kaviPickList.getShell().isDisposed()) {
+			kaviPickList.getShell().dispose();
+		}
+		kaviPickList = null;
+		updateBoosts = null;
+		historyStore = null;
+		if (eclipseCommandProvider != null) eclipseCommandProvider.dispose();
+		eclipseCommandProvider = null;
+	}
+	
+	/*
+	 * Build the command catalog once the workbench is up, so the first invocation does not pay for it.
+	 * - the catalog is built in a background job, only the workbench bound providers are enumerated on the UI thread
+	 * - labels are then resolved and ranked once, warming lazily computed labels and the ranking code
+	 * - a catalog finished after the first dialog was built is disposed, that dialog built its own
+	 */
+	@Override
+	public void earlyStartup() {
+		final long startNanos = System.nanoTime();
+		EclipseWorkbench.runBeforeShutdown(PersistedWorkingSet::flushAll);
+		PlatformUI.getWorkbench().getDisplay().asyncExec(() -> {
+			if (PlatformUI.getWorkbench().getActiveWorkbenchWindow() == null) return;
+			
+			Job catalogJob = new Job("Commander command catalog") {
+				@Override
+				protected IStatus run(IProgressMonitor monitor) {
+					try {
+						final EclipseCommandProvider commandProvider = new EclipseCommandProvider();
+						final long catalogNanos = System.nanoTime() - startNanos;
+						// published first and checked after, initialize sets the flag before taking it, so one of them owns it
+						final boolean published = prewarmedCommandProvider.compareAndSet(null, commandProvider);
+						if (!published || (dialogBuilt.get() && prewarmedCommandProvider.compareAndSet(commandProvider, null))) {
+							commandProvider.dispose();
+							return Status.OK_STATUS;
+						}
+						
+						final long analyzeStartNanos = System.nanoTime();
+						final List<QuickAccessElement> commands = commandProvider.getAllCommands();
+						CommanderContentProviders.listRankAndFilter(commandProvider, labelField(commandProvider), providerField(commandProvider)).rankAndFilter(InputCommand.parse("a"), commands);
+						logger.info("Command catalog of " + commands.size() + " commands prewarmed in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms " +
+									"(catalog " + TimeUnit.NANOSECONDS.toMillis(catalogNanos) + "ms, analysis " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - analyzeStartNanos) + "ms)");
+					} catch (Throwable e) {
+						logger.error("Problem occurred prewarming the command catalog", e);
+					}
+					return Status.OK_STATUS;
+				}
+			};
+			catalogJob.setSystem(true);
+			catalogJob.setPriority(Job.DECORATE);
+			catalogJob.schedule();
+		});
+	}
+	
 	public void initialize(Display display) throws ExecutionException {
-		FieldResolver<QuickAccessElement> providerField = new FieldResolver<>("provider",  item -> item.getProvider().getName());
-		FieldResolver<QuickAccessElement> labelField = new FieldResolver<>("label",  item -> item.getLabel());
-		ListRankAndFilter<QuickAccessElement> listRankAndFilter = CommanderContentProviders.listRankAndFilter(labelField, providerField);
+		dialogBuilt.set(true);
+		eclipseCommandProvider = prewarmedCommandProvider.getAndSet(null);
+		// the prewarmed catalog listens to the window active at startup
+		if (eclipseCommandProvider != null && !eclipseCommandProvider.belongsTo(PlatformUI.getWorkbench().getActiveWorkbenchWindow())) {
+			eclipseCommandProvider.dispose();
+			eclipseCommandProvider = null;
+		}
+		if (eclipseCommandProvider == null) eclipseCommandProvider = new EclipseCommandProvider();
+		// history and boosts are computed from this catalog, providers publishing later are caught up below
+		final int catalogVersion = eclipseCommandProvider.getCatalogVersion();
 		
-		eclipseCommandProvider = new EclipseCommandProvider();
-		PersistedWorkingSet<QuickAccessElement> historyStore = createSettingsStore(eclipseCommandProvider);
+		FieldResolver<QuickAccessElement> providerField = providerField(eclipseCommandProvider);
+		FieldResolver<QuickAccessElement> labelField = labelField(eclipseCommandProvider);
+		ListRankAndFilter<QuickAccessElement> listRankAndFilter = CommanderContentProviders.listRankAndFilter(eclipseCommandProvider, labelField, providerField);
+		final PersistedWorkingSet<QuickAccessElement> historyStore = createSettingsStore(eclipseCommandProvider);
+		this.historyStore = historyStore;
+		updateBoosts = () -> listRankAndFilter.setBoostResolver(historyStore.getFrecencyBoosts());
+		updateBoosts.run();
 		
 		kaviPickList = new KaviPickListDialog<>();
-		kaviPickList.setListContentProvider("discovery", CommanderContentProviders.listContentDiscoveryProvider(listRankAndFilter, historyStore, eclipseCommandProvider))
+		kaviPickList.setOwnerDraw(Boolean.getBoolean(Constants.BUNDLE_ID + ".ownerDraw"));
+		kaviPickList.setListContentProvider("discovery", CommanderContentProviders.listContentDiscoveryProvider(listRankAndFilter, eclipseCommandProvider))
 					.setResolvedAction(resolvedAction(display, historyStore))
 					.addColumn(labelField.fieldId, labelField.fieldResolver).widthPercent(100)
 					.addColumn(providerField.fieldId, providerField.fieldResolver).width(85).right().italic().fontColor(100, 100, 100).backgroundColor(250, 250, 250);
@@ -69,13 +185,38 @@ public class CommanderHandler extends AbstractHandler {
 		
 		kaviPickList.setBounds(600, 400);
 		kaviPickList.setCurrentProvider("working");
-		kaviPickList.open();	
+		kaviPickList.open();
+		
+		// providers finishing late add to the catalog, history may now resolve more items which also get boosts
+		final KaviPickListDialog<QuickAccessElement> dialog = kaviPickList;
+		final Runnable updateBoosts = this.updateBoosts;
+		final Runnable catalogChanged = () -> {
+			historyStore.resolveHistoryAgain();
+			updateBoosts.run();
+			dialog.refreshList();
+		};
+		eclipseCommandProvider.addCatalogListener(() -> display.asyncExec(catalogChanged));
+		// published between computing the history and adding the listener
+		if (eclipseCommandProvider.getCatalogVersion() != catalogVersion) catalogChanged.run();
+		eclipseCommandProvider.addEnablementListener(dialog::refreshList);
+		kaviPickList.setViewPortAction(eclipseCommandProvider::setViewPortRows);
+	}
+
+	/*
+	 * Labels and provider names are cached with the catalog, for ranking and rendering
+	 */
+	private static FieldResolver<QuickAccessElement> labelField(EclipseCommandProvider commandProvider) {
+		return new FieldResolver<>("label",  item -> commandProvider.getCatalogEntry(item).label, item -> commandProvider.getCatalogEntry(item).analyzedLabel);
+	}
+	
+	private static FieldResolver<QuickAccessElement> providerField(EclipseCommandProvider commandProvider) {
+		return new FieldResolver<>("provider",  item -> commandProvider.getCatalogEntry(item).providerName, item -> commandProvider.getCatalogEntry(item).analyzedProviderName);
 	}
 
 	private PersistedWorkingSet<QuickAccessElement> createSettingsStore(EclipseCommandProvider eclipseCommandProvider) {
 		Function<HistoryKey, QuickAccessElement> historyItemResolver = historyKey -> eclipseCommandProvider.getCommand(historyKey.keys.get(0), historyKey.keys.get(1));
 		PersistedWorkingSet<QuickAccessElement> historyStore = new PersistedWorkingSet<>(Constants.BUNDLE_ID, 20, item -> new HistoryKey(item.getProvider().getId(), item.getId()), historyItemResolver);
-		historyStore.load();
+		historyStore.useJournal(HistoryJournal.inStateLocation(Constants.BUNDLE_ID, "history.journal")).load();
 		
 		return historyStore;
 	}
@@ -1,10 +1,15 @@
 package dakara.eclipse.plugin.command.settings;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
 import org.eclipse.core.runtime.preferences.ConfigurationScope;
 import org.eclipse.core.runtime.preferences.IEclipsePreferences;
 import org.osgi.service.prefs.BackingStoreException;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 public class EclipsePreferencesSerializer<T> {
 	private final String prefereneceId;
@@ -15,10 +20,18 @@ public class EclipsePreferencesSerializer<T> {
 		this.preferenceKey = preferenceKey;
 	}
 	
-	public EclipsePreferencesSerializer<T> saveSettings(final T settings) {
+	/*
+	 * The settings are streamed straight to JSON without reflection
+	 */
+	public EclipsePreferencesSerializer<T> saveSettings(final JsonWriting writeSettings) {
+		StringWriter json = new StringWriter();
+		try (JsonWriter writer = new JsonWriter(json)) {
+			writeSettings.write(writer);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 		IEclipsePreferences preferences = ConfigurationScope.INSTANCE.getNode(prefereneceId);
-		Gson gson = new Gson();
-		preferences.put(preferenceKey, gson.toJson(settings));
+		preferences.put(preferenceKey, json.toString());
 		try {
 			preferences.flush();
 		} catch (BackingStoreException e) {
@@ -26,15 +39,29 @@ public class EclipsePreferencesSerializer<T> {
 		}
 		return this;
 	}
-
-	@SuppressWarnings("unchecked")
-	public T loadSettings(final Class<?> settingsTypeClass) {
+	
+	/*
+	 * Streamed reader of the settings.  Returns null when there are no settings.
+	 */
+	public JsonReader settingsReader() {
 		IEclipsePreferences preferences = ConfigurationScope.INSTANCE.getNode(prefereneceId);
-		Gson gson = new Gson();
 		String keyValue = preferences.get(preferenceKey, null);
-		if (keyValue != null) {
-			return (T) gson.fromJson(keyValue, settingsTypeClass );
+		if (keyValue == null) return null;
+		return new JsonReader(new StringReader(keyValue));
+	}
+	
+	public interface JsonWriting {
+		void write(JsonWriter writer) throws IOException;
+	}
+	
+	public EclipsePreferencesSerializer<T> removeSettings() {
+		IEclipsePreferences preferences = ConfigurationScope.INSTANCE.getNode(prefereneceId);
+		preferences.remove(preferenceKey);
+		try {
+			preferences.flush();
+		} catch (BackingStoreException e) {
+			throw new RuntimeException(e);
 		}
-		return null;
+		return this;
 	}
 }
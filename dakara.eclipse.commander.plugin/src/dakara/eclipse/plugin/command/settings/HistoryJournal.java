@@ -0,0 +1,307 @@
+package dakara.eclipse.plugin.command.settings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.Platform;
+
+import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
+
+/*
+ * Append only binary journal of history changes.
+ * - each change is a record; to front, to back, keep forever, usage, remove and content mode
+ * - replaying the records in order gives the history, front first
+ * - reading stops at a record that cannot be decoded, such as one cut short by a crash.  The records before it are
+ *   kept and the journal is compacted before it is appended to again.
+ * - the journal is read into memory rather than mapped, a mapped file cannot be replaced on Windows
+ * - compaction rewrites the journal as the records of a snapshot into a temporary file which replaces the journal
+ */
+public class HistoryJournal {
+	private static final int MAGIC = 0x44484a31;
+	static final byte TO_FRONT = 1;
+	static final byte TO_BACK = 2;
+	static final byte KEEP_FOREVER = 3;
+	static final byte REMOVE = 4;
+	static final byte CONTENT_MODE = 5;
+	static final byte USAGE = 6;
+
+	private final Path file;
+	private int recordCount = 0;
+	private boolean needsCompaction = false;
+
+	public HistoryJournal(Path file) {
+		this.file = file;
+	}
+
+	/*
+	 * Journal file in the state location of the bundle
+	 */
+	public static HistoryJournal inStateLocation(String bundleId, String fileName) {
+		return new HistoryJournal(Platform.getStateLocation(Platform.getBundle(bundleId)).append(fileName).toFile().toPath());
+	}
+
+	Path file() {
+		return file;
+	}
+
+	public boolean exists() {
+		return Files.exists(file);
+	}
+
+	public int recordCount() {
+		return recordCount;
+	}
+
+	/*
+	 * True when the journal has grown well beyond the history it holds, or holds a record that cannot be decoded
+	 */
+	public boolean needsCompaction(int historySize) {
+		return needsCompaction || recordCount > historySize * 4 + 256;
+	}
+
+	public Replay read() throws IOException {
+		final Replay replay = new Replay();
+		recordCount = 0;
+		needsCompaction = false;
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		if (!buffer.hasRemaining()) return replay;
+		if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) throw new IOException("Not a history journal " + file);
+		while (buffer.hasRemaining()) {
+			try {
+				replay.apply(buffer);
+				recordCount++;
+			} catch (BufferUnderflowException | CorruptRecordException e) {
+				needsCompaction = true;
+				break;
+			}
+		}
+		return replay;
+	}
+
+	public HistoryJournal append(List<Record> records) throws IOException {
+		if (records.isEmpty()) return this;
+		final boolean isNew = !exists();
+		if (isNew) Files.createDirectories(file.getParent());
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			writeFully(channel, encode(records, isNew));
+			channel.force(false);
+		}
+		recordCount += records.size();
+		return this;
+	}
+
+	public HistoryJournal compact(List<Record> snapshotRecords) throws IOException {
+		Files.createDirectories(file.getParent());
+		final Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+		try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, encode(snapshotRecords, true));
+			channel.force(false);
+		}
+		Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		recordCount = snapshotRecords.size();
+		needsCompaction = false;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return file.toString();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static ByteBuffer encode(List<Record> records, boolean withHeader) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(records.size() * 48 + 4);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		if (withHeader) out.writeInt(MAGIC);
+		for (Record record : records) {
+			out.writeByte(record.type);
+			if (record.type == CONTENT_MODE) {
+				writeString(out, record.text);
+				continue;
+			}
+			out.writeByte(record.key.keys.size());
+			for (String key : record.key.keys) {
+				writeString(out, key);
+			}
+			if (record.type == KEEP_FOREVER) out.writeBoolean(record.keepForever);
+			if (record.type == USAGE) {
+				out.writeFloat(record.useScore);
+				out.writeLong(record.lastUsedMillis);
+			}
+		}
+		out.flush();
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	private static void writeString(DataOutputStream out, String text) throws IOException {
+		if (text == null) {
+			out.writeInt(-1);
+			return;
+		}
+		final byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(utf8.length);
+		out.write(utf8);
+	}
+
+	private static String readString(ByteBuffer buffer) throws CorruptRecordException {
+		final int length = buffer.getInt();
+		if (length == -1) return null;
+		if (length < 0 || length > buffer.remaining()) throw new CorruptRecordException();
+		final byte[] utf8 = new byte[length];
+		buffer.get(utf8);
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+
+	private static HistoryKey readKey(ByteBuffer buffer) throws CorruptRecordException {
+		final String[] keys = new String[buffer.get() & 0xff];
+		for (int index = 0; index < keys.length; index++) {
+			keys[index] = readString(buffer);
+		}
+		return new HistoryKey(keys);
+	}
+
+	public static final class Record {
+		final byte type;
+		final HistoryKey key;
+		final boolean keepForever;
+		final float useScore;
+		final long lastUsedMillis;
+		final String text;
+
+		private Record(byte type, HistoryKey key, boolean keepForever, String text) {
+			this(type, key, keepForever, 0, 0, text);
+		}
+
+		private Record(byte type, HistoryKey key, boolean keepForever, float useScore, long lastUsedMillis, String text) {
+			this.type = type;
+			this.key = key;
+			this.keepForever = keepForever;
+			this.useScore = useScore;
+			this.lastUsedMillis = lastUsedMillis;
+			this.text = text;
+		}
+
+		public static Record toFront(HistoryKey key) {
+			return new Record(TO_FRONT, key, false, null);
+		}
+
+		public static Record toBack(HistoryKey key) {
+			return new Record(TO_BACK, key, false, null);
+		}
+
+		public static Record keepForever(HistoryKey key, boolean keepForever) {
+			return new Record(KEEP_FOREVER, key, keepForever, null);
+		}
+
+		public static Record usage(HistoryKey key, float useScore, long lastUsedMillis) {
+			return new Record(USAGE, key, false, useScore, lastUsedMillis, null);
+		}
+
+		public static Record remove(HistoryKey key) {
+			return new Record(REMOVE, key, false, null);
+		}
+
+		public static Record contentMode(String contentMode) {
+			return new Record(CONTENT_MODE, null, false, contentMode);
+		}
+	}
+
+	/*
+	 * Replayed history.  Positions are sequence numbers, to front counts up and to back counts down,
+	 * so replay is a hash update per record and the order is only resolved once at the end.
+	 */
+	public static final class Replay {
+		private static final ReplayedEntry NO_ENTRY = new ReplayedEntry();
+		private final Map<HistoryKey, ReplayedEntry> entryByKey = new HashMap<>();
+		private long frontSequence = 0;
+		private long backSequence = 0;
+		private String contentMode;
+
+		/*
+		 * Decodes the whole record before changing the replay, a record that cannot be decoded changes nothing
+		 */
+		private void apply(ByteBuffer buffer) throws CorruptRecordException {
+			final byte type = buffer.get();
+			if (type == CONTENT_MODE) {
+				contentMode = readString(buffer);
+				return;
+			}
+			if (type < TO_FRONT || type > USAGE) throw new CorruptRecordException();
+			final HistoryKey key = readKey(buffer);
+			switch (type) {
+			case TO_FRONT:
+				entryByKey.computeIfAbsent(key, newKey -> new ReplayedEntry()).position = ++frontSequence;
+				break;
+			case TO_BACK:
+				entryByKey.computeIfAbsent(key, newKey -> new ReplayedEntry()).position = --backSequence;
+				break;
+			case KEEP_FOREVER:
+				final boolean keepForever = buffer.get() != 0;
+				if (entryByKey.containsKey(key)) entryByKey.get(key).keepForever = keepForever;
+				break;
+			case USAGE:
+				final float useScore = buffer.getFloat();
+				final long lastUsedMillis = buffer.getLong();
+				if (entryByKey.containsKey(key)) {
+					entryByKey.get(key).useScore = useScore;
+					entryByKey.get(key).lastUsedMillis = lastUsedMillis;
+				}
+				break;
+			case REMOVE:
+				entryByKey.remove(key);
+				break;
+			}
+		}
+
+		public List<HistoryKey> keysFrontFirst() {
+			final List<HistoryKey> keys = new ArrayList<>(entryByKey.keySet());
+			keys.sort((keyA, keyB) -> Long.compare(entryByKey.get(keyB).position, entryByKey.get(keyA).position));
+			return keys;
+		}
+
+		public boolean isKeepForever(HistoryKey key) {
+			return entryByKey.getOrDefault(key, NO_ENTRY).keepForever;
+		}
+
+		public float useScore(HistoryKey key) {
+			return entryByKey.getOrDefault(key, NO_ENTRY).useScore;
+		}
+
+		public long lastUsedMillis(HistoryKey key) {
+			return entryByKey.getOrDefault(key, NO_ENTRY).lastUsedMillis;
+		}
+
+		public String contentMode() {
+			return contentMode;
+		}
+	}
+
+	private static final class CorruptRecordException extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static final class ReplayedEntry {
+		private long position;
+		private boolean keepForever;
+		private float useScore;
+		private long lastUsedMillis;
+	}
+}
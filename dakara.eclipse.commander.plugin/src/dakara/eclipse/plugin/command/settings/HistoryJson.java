@@ -0,0 +1,189 @@
+package dakara.eclipse.plugin.command.settings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
+
+/*
+ * Streamed JSON of the history settings, in the same format Gson writes for CommanderSettings.
+ * - {"contentMode": "...", "entries": [{"entryId": {"keys": [...]}, "keepForever": false, "useScore": 1.0, "lastUsedMillis": 0}]}
+ * - entries are read in batches, so the first entries can be used before the rest are decoded
+ */
+class HistoryJson {
+	static final TypeAdapter<HistoryKey> historyKeyAdapter = new HistoryKeyAdapter();
+
+	static <T> void writeSettings(JsonWriter writer, PersistedWorkingSet<T> workingSet, List<PersistedWorkingSet<T>.HistoryEntry> entries, String contentMode) throws IOException {
+		final HistoryEntryAdapter<T> entryAdapter = new HistoryEntryAdapter<>(workingSet);
+		writer.beginObject();
+		if (contentMode != null) writer.name("contentMode").value(contentMode);
+		writer.name("entries").beginArray();
+		for (PersistedWorkingSet<T>.HistoryEntry entry : entries) {
+			entryAdapter.write(writer, entry);
+		}
+		writer.endArray();
+		writer.endObject();
+	}
+
+	static final class HistoryKeyAdapter extends TypeAdapter<HistoryKey> {
+		@Override
+		public void write(JsonWriter writer, HistoryKey key) throws IOException {
+			writer.beginObject().name("keys").beginArray();
+			for (String keyPart : key.keys) {
+				writer.value(keyPart);
+			}
+			writer.endArray().endObject();
+		}
+
+		@Override
+		public HistoryKey read(JsonReader reader) throws IOException {
+			final List<String> keys = new ArrayList<>(4);
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (!reader.nextName().equals("keys")) {
+					reader.skipValue();
+					continue;
+				}
+				reader.beginArray();
+				while (reader.hasNext()) {
+					keys.add(nextStringOrNull(reader));
+				}
+				reader.endArray();
+			}
+			reader.endObject();
+			return new HistoryKey(keys.toArray(new String[keys.size()]));
+		}
+	}
+
+	static final class HistoryEntryAdapter<T> extends TypeAdapter<PersistedWorkingSet<T>.HistoryEntry> {
+		private final PersistedWorkingSet<T> workingSet;
+
+		HistoryEntryAdapter(PersistedWorkingSet<T> workingSet) {
+			this.workingSet = workingSet;
+		}
+
+		@Override
+		public void write(JsonWriter writer, PersistedWorkingSet<T>.HistoryEntry entry) throws IOException {
+			writer.beginObject();
+			writer.name("entryId");
+			historyKeyAdapter.write(writer, entry.entryId);
+			writer.name("keepForever").value(entry.keepForever);
+			if (entry.useScore != 0) {
+				writer.name("useScore").value(entry.useScore);
+				writer.name("lastUsedMillis").value(entry.lastUsedMillis);
+			}
+			writer.endObject();
+		}
+
+		/*
+		 * Returns null for an entry without an id
+		 */
+		@Override
+		public PersistedWorkingSet<T>.HistoryEntry read(JsonReader reader) throws IOException {
+			HistoryKey entryId = null;
+			boolean keepForever = false;
+			double useScore = 0;
+			long lastUsedMillis = 0;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+				case "entryId":
+					if (reader.peek() == JsonToken.NULL) reader.nextNull();
+					else entryId = historyKeyAdapter.read(reader);
+					break;
+				case "keepForever":
+					keepForever = reader.nextBoolean();
+					break;
+				case "useScore":
+					useScore = reader.nextDouble();
+					break;
+				case "lastUsedMillis":
+					lastUsedMillis = reader.nextLong();
+					break;
+				default:
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if (entryId == null) return null;
+
+			final PersistedWorkingSet<T>.HistoryEntry entry = workingSet.new HistoryEntry(entryId);
+			entry.keepForever = keepForever;
+			entry.useScore = (float) useScore;
+			entry.lastUsedMillis = lastUsedMillis;
+			return entry;
+		}
+	}
+
+	/*
+	 * Reads the settings object incrementally.  Fields other than the entries are read as they are reached,
+	 * so the content mode is only known once the entries before it have been read.
+	 */
+	static final class SettingsReader<T> {
+		private final JsonReader reader;
+		private final HistoryEntryAdapter<T> entryAdapter;
+		private boolean inEntries = false;
+		private boolean done = false;
+		private String contentMode;
+
+		SettingsReader(JsonReader reader, PersistedWorkingSet<T> workingSet) throws IOException {
+			this.reader = reader;
+			this.entryAdapter = new HistoryEntryAdapter<>(workingSet);
+			reader.beginObject();
+			advanceToEntries();
+		}
+
+		List<PersistedWorkingSet<T>.HistoryEntry> readEntries(int maxEntries) throws IOException {
+			final List<PersistedWorkingSet<T>.HistoryEntry> entries = new ArrayList<>(Math.min(maxEntries, 256));
+			while (!done && entries.size() < maxEntries) {
+				if (reader.hasNext()) {
+					final PersistedWorkingSet<T>.HistoryEntry entry = entryAdapter.read(reader);
+					if (entry != null) entries.add(entry);
+				} else {
+					reader.endArray();
+					inEntries = false;
+					advanceToEntries();
+				}
+			}
+			return entries;
+		}
+
+		boolean isDone() {
+			return done;
+		}
+
+		String contentMode() {
+			return contentMode;
+		}
+
+		private void advanceToEntries() throws IOException {
+			while (!inEntries && reader.hasNext()) {
+				final String name = reader.nextName();
+				if (name.equals("entries") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+					reader.beginArray();
+					inEntries = true;
+				} else if (name.equals("contentMode")) {
+					contentMode = nextStringOrNull(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			if (!inEntries) {
+				reader.endObject();
+				done = true;
+			}
+		}
+	}
+
+	private static String nextStringOrNull(JsonReader reader) throws IOException {
+		if (reader.peek() != JsonToken.NULL) return reader.nextString();
+		reader.nextNull();
+		return null;
+	}
+}
@@ -1,125 +1,500 @@
 package dakara.eclipse.plugin.command.settings;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
 import dakara.eclipse.plugin.command.Constants;
+import dakara.eclipse.plugin.command.settings.HistoryJournal.Record;
+import dakara.eclipse.plugin.command.settings.HistoryJournal.Replay;
+import dakara.eclipse.plugin.command.settings.HistoryJson.SettingsReader;
 import dakara.eclipse.plugin.log.EclipsePluginLogger;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
+/*
+ * History is written behind.  save() only marks the set dirty, a background writer serializes a snapshot and
+ * flushes the preferences FLUSH_DELAY_MILLIS later, so a burst of saves is written once.
+ * - a flush only clears the changes it wrote, so a change made while writing is written by the next flush
+ * - a failed flush stays dirty and is retried by the next save
+ * - pending changes are flushed before the same set is loaded again and when the workbench shuts down, see flushAll
+ */
 public class PersistedWorkingSet<T> {
+	static final long FLUSH_DELAY_MILLIS = 1000;
+	static final int FIRST_LOAD_ENTRIES = 64;
+	static final int IMPORT_BATCH_ENTRIES = 1024;
+	static final long USE_HALF_LIFE_MILLIS = TimeUnit.DAYS.toMillis(7);
+	// a use of the most frecent item is worth this much boost, see getFrecencyBoosts
+	private static final int MAX_BOOST = 1000;
+	private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Commander history writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// sets with changes not yet written, by preference id
+	private static final Map<String, PersistedWorkingSet<?>> dirtySets = new ConcurrentHashMap<>();
+	
 	private EclipsePluginLogger logger = new EclipsePluginLogger(Constants.BUNDLE_ID);
 	private final int historyLimit;
-	private List<HistoryEntry> currentEntries = new ArrayList<>();
+	// resolved entries and their distinct items, in history order.  New lists are made when the history changes.
+	private List<HistoryEntry> currentEntries = Collections.emptyList();
+	private List<T> currentItems = Collections.emptyList();
 	private boolean historyChangedSinceCheck = false;
+	// entries resolved in an older generation are resolved again.  Starts at 1, deserialized entries have generation 0.
+	private int resolveGeneration = 1;
 	
 	public final Function<T, HistoryKey> historyItemIdResolver;
 	public final Function<HistoryKey, T> historyItemResolver;
-	private CommanderSettings commanderSettings = new CommanderSettings(new ArrayList<HistoryEntry>());
+	private final History history = new History();
+	private String contentMode;
 	private EclipsePreferencesSerializer<CommanderSettings> eclipsePreferencesSerializer;
 	static final String HISTORY_KEY = "HISTORY";
+	private final String id;
+	private long changeCount = 0;
+	private long savedChangeCount = 0;
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private final Object writeLock = new Object();
+	private HistoryJournal journal;
+	// journal records of changes not yet written
+	private List<Record> pendingRecords = new ArrayList<>();
+	private boolean compactJournal = false;
+	// stored history that could not be read is never overwritten
+	private boolean loadFailed = false;
+	// decoding of the history entries not needed for the first render, see loadPreferences
+	private volatile CompletableFuture<Void> remainingLoad = CompletableFuture.completedFuture(null);
 	
 	public PersistedWorkingSet(String id, int historyLimit, Function<T, HistoryKey> historyItemIdResolver, Function<HistoryKey, T> historyItemResolver) {
+		this.id = id;
 		this.historyLimit = historyLimit;
 		this.historyItemIdResolver = historyItemIdResolver;
 		this.historyItemResolver = historyItemResolver;
 		this.eclipsePreferencesSerializer = new EclipsePreferencesSerializer<>(id, HISTORY_KEY);
 	}
 
+	/*
+	 * Does no I/O, the changes are written by the background writer
+	 */
 	public PersistedWorkingSet<T> save() {
-		try {
-			eclipsePreferencesSerializer.saveSettings(commanderSettings);
-		} catch (Throwable e) {
-			logger.error("Unable to save settings", e);
+		synchronized (this) {
+			changeCount++;
+		}
+		dirtySets.put(id, this);
+		if (flushScheduled.compareAndSet(false, true)) {
+			writer.schedule(() -> {
+				flushScheduled.set(false);
+				flush();
+			}, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+	
+	/*
+	 * Write pending changes now, on the calling thread
+	 */
+	public PersistedWorkingSet<T> flush() {
+		// never write a partially loaded history
+		remainingLoad.join();
+		// serialize writes of the same set, snapshots and journal records must reach the disk in the order they were taken
+		synchronized (writeLock) {
+			final CommanderSettings snapshot;
+			final long snapshotChangeCount;
+			final List<Record> records;
+			final boolean compact;
+			synchronized (this) {
+				if (loadFailed) {
+					savedChangeCount = changeCount;
+					dirtySets.remove(id, this);
+				}
+				if (savedChangeCount == changeCount) return this;
+				snapshot = new CommanderSettings(history.toList());
+				snapshot.contentMode = contentMode;
+				snapshotChangeCount = changeCount;
+				records = pendingRecords;
+				pendingRecords = new ArrayList<>();
+				compact = journal != null && (compactJournal || journal.needsCompaction(snapshot.entries.size()));
+			}
+			try {
+				if (journal == null) eclipsePreferencesSerializer.saveSettings(writer -> HistoryJson.writeSettings(writer, this, snapshot.entries, snapshot.contentMode));
+				else if (compact) journal.compact(snapshotRecords(snapshot));
+				else journal.append(records);
+			} catch (Throwable e) {
+				logger.error("Unable to save settings", e);
+				// the records of this flush are lost, rewrite the whole journal next time
+				synchronized (this) {
+					compactJournal = true;
+				}
+				return this;
+			}
+			synchronized (this) {
+				if (compact) compactJournal = false;
+				savedChangeCount = snapshotChangeCount;
+				if (savedChangeCount == changeCount) dirtySets.remove(id, this);
+			}
+		}
+		return this;
+	}
+	
+	public synchronized boolean isDirty() {
+		return savedChangeCount != changeCount;
+	}
+	
+	/*
+	 * Flush every set with pending changes.  Called when the workbench shuts down.
+	 */
+	public static void flushAll() {
+		for (PersistedWorkingSet<?> workingSet : dirtySets.values()) {
+			workingSet.flush();
 		}
+	}
+
+	/*
+	 * Store the history in a journal file rather than in the preferences.  History found in the preferences is
+	 * migrated into the journal on load.
+	 */
+	public PersistedWorkingSet<T> useJournal(HistoryJournal journal) {
+		this.journal = journal;
 		return this;
 	}
 
 	public PersistedWorkingSet<T> load() {
+		// a previous instance for the same id may not have written its changes yet
+		PersistedWorkingSet<?> pending = dirtySets.get(id);
+		if (pending != null && pending != this) pending.flush();
+		remainingLoad.join();
+		
 		try {
-			commanderSettings = eclipsePreferencesSerializer.loadSettings(CommanderSettings.class);
+			if (journal != null && journal.exists()) install(replayJournal(), false);
+			else loadPreferences();
 		} catch (Throwable e) {
-			logger.error("Unable to restore settings and history", e);
+			logger.error("Unable to restore settings and history, changes will not be saved", e);
+			install(null, true);
 		}
-		if (commanderSettings == null) commanderSettings = new CommanderSettings(new ArrayList<HistoryEntry>());
 		return this;
 	}
-
-	private void checkAndClearOnChanged() {
-		if (historyChangedSinceCheck) {
-			currentEntries.clear();
+	
+	private synchronized void install(CommanderSettings loadedSettings, boolean loadFailed) {
+		this.loadFailed = loadFailed;
+		// the journal holds what was loaded, a compaction pending for earlier changes is not needed
+		compactJournal = false;
+		history.clear();
+		contentMode = null;
+		if (loadedSettings != null) {
+			for (HistoryEntry entry : loadedSettings.entries) {
+				if (history.get(entry.entryId) == null) history.addToBack(entry);
+			}
+			contentMode = loadedSettings.contentMode;
 		}
-		historyChangedSinceCheck = false;
+		historyChangedSinceCheck = true;
 	}
 	
-	public List<HistoryEntry> getHistory() {
-		checkAndClearOnChanged();
-		
-		if (!currentEntries.isEmpty()) return currentEntries;
+	/*
+	 * Only the entries needed for the first render are decoded on the calling thread.  The rest are decoded in
+	 * the background and added behind them, flushes wait until they are.  An entry used in the meantime keeps its
+	 * place and the stored attributes are merged into it.
+	 */
+	private void loadPreferences() throws IOException {
+		final JsonReader json = eclipsePreferencesSerializer.settingsReader();
+		if (json == null) {
+			install(null, false);
+			return;
+		}
+		final SettingsReader<T> settingsReader = new SettingsReader<>(json, this);
+		final CommanderSettings firstSettings = new CommanderSettings(settingsReader.readEntries(FIRST_LOAD_ENTRIES));
+		firstSettings.contentMode = settingsReader.contentMode();
+		install(firstSettings, false);
+		if (settingsReader.isDone()) {
+			if (journal != null) migrateToJournal();
+			return;
+		}
 		
-		for (HistoryEntry entry : commanderSettings.entries) {
+		remainingLoad = CompletableFuture.runAsync(() -> {
 			try {
-				entry.historyItem = historyItemResolver.apply(entry.entryId);
-				if (entry.historyItem != null)
-					currentEntries.add(entry);
-			} catch (Exception e) {
-				logger.error("unable to restore history entry " + entry.entryId,  e);
+				final List<HistoryEntry> remainingEntries = settingsReader.readEntries(Integer.MAX_VALUE);
+				synchronized (this) {
+					for (HistoryEntry entry : remainingEntries) {
+						final HistoryEntry existingEntry = history.get(entry.entryId);
+						if (existingEntry == null) history.addToBack(entry);
+						else mergeStored(existingEntry, entry);
+					}
+					if (contentMode == null) contentMode = settingsReader.contentMode();
+					historyChangedSinceCheck = true;
+				}
+				if (journal != null) migrateToJournal();
+			} catch (Throwable e) {
+				logger.error("Unable to restore settings and history, changes will not be saved", e);
+				synchronized (this) {
+					loadFailed = true;
+				}
 			}
+		});
+	}
+	
+	private void mergeStored(HistoryEntry entry, HistoryEntry storedEntry) {
+		if (storedEntry.keepForever && !entry.keepForever) {
+			history.setKeepForever(entry, true);
+			journal(Record.keepForever(entry.entryId, true));
+		}
+		if (storedEntry.useScore != 0) {
+			entry.mergeUse(storedEntry);
+			journal(Record.usage(entry.entryId, entry.useScore, entry.lastUsedMillis));
+		}
+	}
+	
+	/*
+	 * Write the whole history as JSON, in the format of the preferences
+	 */
+	public PersistedWorkingSet<T> exportHistory(Writer out) throws IOException {
+		remainingLoad.join();
+		final List<HistoryEntry> entries;
+		final String contentMode;
+		synchronized (this) {
+			entries = history.toList();
+			contentMode = this.contentMode;
+		}
+		final JsonWriter writer = new JsonWriter(out);
+		HistoryJson.writeSettings(writer, this, entries, contentMode);
+		writer.flush();
+		return this;
+	}
+	
+	/*
+	 * Merge history exported by exportHistory.  Entries are decoded in batches and de-duplicated by key,
+	 * new entries are added behind the existing ones and imported favorites stay favorites.  The changes are
+	 * saved once, as a single journal compaction.  Returns the number of entries added.
+	 */
+	public int importHistory(Reader in) throws IOException {
+		remainingLoad.join();
+		final SettingsReader<T> settingsReader = new SettingsReader<>(new JsonReader(in), this);
+		int importedCount = 0;
+		while (!settingsReader.isDone()) {
+			final List<HistoryEntry> entries = settingsReader.readEntries(IMPORT_BATCH_ENTRIES);
+			synchronized (this) {
+				for (HistoryEntry entry : entries) {
+					final HistoryEntry existingEntry = history.get(entry.entryId);
+					if (existingEntry == null) {
+						history.addToBack(entry);
+						importedCount++;
+					} else if (entry.keepForever) {
+						history.setKeepForever(existingEntry, true);
+					}
+				}
+			}
+		}
+		synchronized (this) {
+			// imported recent entries are the oldest, they are evicted before any existing entry
+			while (history.recentCount > historyLimit) {
+				history.remove(history.oldestRecent);
+			}
+			compactJournal = true;
+			historyChangedSinceCheck = true;
+		}
+		save();
+		return importedCount;
+	}
+	
+	private CommanderSettings replayJournal() throws IOException {
+		final Replay replay = journal.read();
+		final List<HistoryEntry> entries = new ArrayList<>();
+		for (HistoryKey key : replay.keysFrontFirst()) {
+			HistoryEntry entry = new HistoryEntry(key);
+			entry.keepForever = replay.isKeepForever(key);
+			entry.useScore = replay.useScore(key);
+			entry.lastUsedMillis = replay.lastUsedMillis(key);
+			entries.add(entry);
+		}
+		CommanderSettings settings = new CommanderSettings(entries);
+		settings.contentMode = replay.contentMode();
+		return settings;
+	}
+	
+	private void migrateToJournal() {
+		synchronized (writeLock) {
+			final CommanderSettings snapshot;
+			synchronized (this) {
+				snapshot = new CommanderSettings(history.toList());
+				snapshot.contentMode = contentMode;
+			}
+			try {
+				journal.compact(snapshotRecords(snapshot));
+				eclipsePreferencesSerializer.removeSettings();
+			} catch (Throwable e) {
+				logger.error("Unable to migrate history to " + journal, e);
+			}
+		}
+	}
+	
+	private static List<Record> snapshotRecords(PersistedWorkingSet<?>.CommanderSettings settings) {
+		final List<Record> records = new ArrayList<>(settings.entries.size() * 3 + 1);
+		for (PersistedWorkingSet<?>.HistoryEntry entry : settings.entries) {
+			records.add(Record.toBack(entry.entryId));
+			if (entry.keepForever) records.add(Record.keepForever(entry.entryId, true));
+			if (entry.useScore != 0) records.add(Record.usage(entry.entryId, entry.useScore, entry.lastUsedMillis));
+		}
+		if (settings.contentMode != null) records.add(Record.contentMode(settings.contentMode));
+		return records;
+	}
+	
+	private void journal(Record record) {
+		if (journal != null) pendingRecords.add(record);
+	}
+
+	/*
+	 * Resolved entries are cached on the entry, only entries that were added since, or not yet resolved, are resolved
+	 */
+	private void checkAndResolveOnChanged() {
+		if (!historyChangedSinceCheck) return;
+		historyChangedSinceCheck = false;
+		
+		final List<HistoryEntry> entries = new ArrayList<>();
+		final List<T> items = new ArrayList<>();
+		final Set<T> distinctItems = new HashSet<>();
+		for (HistoryEntry entry = history.front; entry != null; entry = entry.next) {
+			if (entry.resolvedGeneration != resolveGeneration) resolve(entry);
+			if (entry.historyItem == null) continue;
+			entries.add(entry);
+			if (distinctItems.add(entry.historyItem)) items.add(entry.historyItem);
+		}
+		currentEntries = Collections.unmodifiableList(entries);
+		currentItems = Collections.unmodifiableList(items);
+	}
+	
+	private void resolve(HistoryEntry entry) {
+		entry.resolvedGeneration = resolveGeneration;
+		try {
+			entry.historyItem = historyItemResolver.apply(entry.entryId);
+		} catch (Exception e) {
+			entry.historyItem = null;
+			logger.error("unable to restore history entry " + entry.entryId,  e);
 		}
+	}
+	
+	private void resolved(HistoryEntry entry, T historyItem) {
+		entry.historyItem = historyItem;
+		entry.resolvedGeneration = resolveGeneration;
+	}
+	
+	/*
+	 * The same list is returned until the history changes
+	 */
+	public synchronized List<HistoryEntry> getHistory() {
+		checkAndResolveOnChanged();
 		return currentEntries;
 	}
 	
-	public HistoryEntry getHistoryEntry(T historyItem) {
-		HistoryEntry newHistoryEntry = makeEntry(historyItem);
-		final int index = commanderSettings.entries.indexOf(newHistoryEntry);
-		if (index > -1) return commanderSettings.entries.get(index);
-		return null;
+	/*
+	 * Distinct resolved items in history order.  The same list is returned until the history changes.
+	 */
+	public synchronized List<T> getHistoryItems() {
+		checkAndResolveOnChanged();
+		return currentItems;
+	}
+	
+	/*
+	 * Resolve the history items again on next access, such as when items that could not be resolved become available
+	 */
+	public synchronized PersistedWorkingSet<T> resolveHistoryAgain() {
+		resolveGeneration++;
+		historyChangedSinceCheck = true;
+		return this;
+	}
+	
+	/*
+	 * Boost by item for ranking, computed once from the frecency of the resolved entries.  Items which were never used,
+	 * or not for a long time, have no boost.
+	 */
+	public synchronized ToIntFunction<T> getFrecencyBoosts() {
+		checkAndResolveOnChanged();
+		final long nowMillis = System.currentTimeMillis();
+		double maxFrecency = 0;
+		for (HistoryEntry entry : currentEntries) {
+			maxFrecency = Math.max(maxFrecency, entry.frecency(nowMillis));
+		}
+		
+		final Object2IntOpenHashMap<T> boosts = new Object2IntOpenHashMap<>();
+		if (maxFrecency == 0) return boosts::getInt;
+		for (HistoryEntry entry : currentEntries) {
+			final int boost = (int) Math.round(MAX_BOOST * entry.frecency(nowMillis) / maxFrecency);
+			if (boost > 0) boosts.put(entry.historyItem, Math.max(boost, boosts.getInt(entry.historyItem)));
+		}
+		return boosts::getInt;
+	}
+	
+	public synchronized HistoryEntry getHistoryEntry(T historyItem) {
+		return history.get(historyItemIdResolver.apply(historyItem));
 	}
 	
-	public PersistedWorkingSet<T> addToHistory(T historyItem) {
+	public synchronized PersistedWorkingSet<T> addToHistory(T historyItem) {
 		historyChangedSinceCheck = true;
-		HistoryEntry newHistoryEntry = makeEntry(historyItem);
-		final int existingIndex = commanderSettings.entries.indexOf(newHistoryEntry);
-		if (existingIndex > -1) newHistoryEntry = commanderSettings.entries.get(existingIndex);  // get existing so we keep other attributes.  We just want to move to first in the list
-		commanderSettings.entries.remove(newHistoryEntry);
-		commanderSettings.entries.add(0, newHistoryEntry);
-		
-		// count items that are not favorites and which have a valid item reference
-		if (commanderSettings.entries.stream().filter(entry->!entry.keepForever && entry.historyItem != null).count() > historyLimit) {
-			HistoryEntry lastRecentEntry = commanderSettings.entries.stream().filter(entry->!entry.keepForever && entry.historyItem != null).reduce((a, b) -> b).orElse(null);
-			if(lastRecentEntry != null) 
-				commanderSettings.entries.remove(commanderSettings.entries.indexOf(lastRecentEntry));
+		final HistoryKey key = historyItemIdResolver.apply(historyItem);
+		HistoryEntry entry = history.get(key);
+		if (entry == null) entry = new HistoryEntry(key);  // existing entries keep their other attributes.  We just want to move to first in the list
+		resolved(entry, historyItem);
+		entry.recordUse(System.currentTimeMillis());
+		history.moveToFront(entry);
+		journal(Record.toFront(entry.entryId));
+		journal(Record.usage(entry.entryId, entry.useScore, entry.lastUsedMillis));
+		
+		// favorites do not count towards the limit
+		if (history.recentCount > historyLimit) {
+			HistoryEntry oldestRecentEntry = history.oldestRecent;
+			history.remove(oldestRecentEntry);
+			journal(Record.remove(oldestRecentEntry.entryId));
 		}
 		return this;
 	}
 	
-	public PersistedWorkingSet<T> setContentMode(String mode) {
-		commanderSettings.contentMode = mode;
+	public synchronized PersistedWorkingSet<T> setContentMode(String mode) {
+		contentMode = mode;
+		journal(Record.contentMode(mode));
 		return this;
 	}
 	
-	public String getContentMode() {
-		return commanderSettings.contentMode;
+	public synchronized String getContentMode() {
+		return contentMode;
 	}
 	
-	public PersistedWorkingSet<T> setHistoryPermanent(T historyItem, boolean permanent) {
-		historyChangedSinceCheck = true;
-		HistoryEntry entry = makeEntry(historyItem);
-		int index = commanderSettings.entries.indexOf(entry);
-		if (index == -1) {
+	public synchronized PersistedWorkingSet<T> setHistoryPermanent(T historyItem, boolean permanent) {
+		HistoryEntry entry = history.get(historyItemIdResolver.apply(historyItem));
+		if (entry == null) {
+			historyChangedSinceCheck = true;
+			entry = makeEntry(historyItem);
+			resolved(entry, historyItem);
 			entry.keepForever = true;
-			commanderSettings.entries.add(entry);
+			history.addToBack(entry);
+			journal(Record.toBack(entry.entryId));
+			journal(Record.keepForever(entry.entryId, true));
 			return this;
 		}
-		entry = commanderSettings.entries.get(index);
-		entry.keepForever = permanent;
+		history.setKeepForever(entry, permanent);
+		journal(Record.keepForever(entry.entryId, permanent));
 		return this;
 	}
 	
-	public PersistedWorkingSet<T> removeHistory(T historyItem) {
-		historyChangedSinceCheck = true;
-		commanderSettings.entries.remove(makeEntry(historyItem));
+	public synchronized PersistedWorkingSet<T> removeHistory(T historyItem) {
+		HistoryEntry entry = history.get(historyItemIdResolver.apply(historyItem));
+		if (entry != null) {
+			historyChangedSinceCheck = true;
+			history.remove(entry);
+			journal(Record.remove(entry.entryId));
+		}
 		return this;
 	}
 	
@@ -157,7 +532,14 @@ public class PersistedWorkingSet<T> {
 	public class HistoryEntry {
 		public final HistoryKey entryId;
 		public boolean keepForever = false;
+		// use count decayed to the time of the last use, see frecency
+		float useScore = 0;
+		long lastUsedMillis = 0;
 		private transient T historyItem;
+		private transient int resolvedGeneration;
+		// links of the history order and of the recent segment, see History
+		private transient HistoryEntry previous, next;
+		private transient HistoryEntry previousRecent, nextRecent;
 		public HistoryEntry(HistoryKey entryId) {
 			this.entryId = entryId;
 		}
@@ -166,6 +548,28 @@ public class PersistedWorkingSet<T> {
 			return historyItem;
 		}
 		
+		/*
+		 * Use count where each use counts half as much every USE_HALF_LIFE_MILLIS
+		 */
+		public double frecency(long nowMillis) {
+			if (useScore == 0) return 0;
+			return useScore * Math.pow(0.5, Math.max(0, nowMillis - lastUsedMillis) / (double) USE_HALF_LIFE_MILLIS);
+		}
+		
+		private void recordUse(long nowMillis) {
+			useScore = (float) frecency(nowMillis) + 1;
+			lastUsedMillis = nowMillis;
+		}
+		
+		/*
+		 * Adds the uses of another entry of the same key, decayed to the later of the two last uses
+		 */
+		private void mergeUse(HistoryEntry other) {
+			final long mergedMillis = Math.max(lastUsedMillis, other.lastUsedMillis);
+			useScore = (float) (frecency(mergedMillis) + other.frecency(mergedMillis));
+			lastUsedMillis = mergedMillis;
+		}
+		
 		@Override
 		public String toString() {
 			return entryId.toString();
@@ -184,4 +588,122 @@ public class PersistedWorkingSet<T> {
 			return entryId.hashCode();
 		}
 	}
+	
+	/*
+	 * History order, front first, as a linked list indexed by key.  Entries which are not favorites are also
+	 * linked into the recent segment, in the order they were last moved to the front, with a running count.
+	 * Move to front, lookup and eviction of the oldest recent entry are constant time.
+	 */
+	private class History {
+		private final Map<HistoryKey, HistoryEntry> entryByKey = new HashMap<>();
+		private HistoryEntry front, back;
+		private HistoryEntry newestRecent, oldestRecent;
+		private int recentCount = 0;
+		
+		HistoryEntry get(HistoryKey key) {
+			return entryByKey.get(key);
+		}
+		
+		void moveToFront(HistoryEntry entry) {
+			if (entryByKey.get(entry.entryId) == entry) unlink(entry);
+			entryByKey.put(entry.entryId, entry);
+			entry.previous = null;
+			entry.next = front;
+			if (front != null) front.previous = entry;
+			front = entry;
+			if (back == null) back = entry;
+			if (!entry.keepForever) linkNewestRecent(entry);
+		}
+		
+		void addToBack(HistoryEntry entry) {
+			entryByKey.put(entry.entryId, entry);
+			entry.next = null;
+			entry.previous = back;
+			if (back != null) back.next = entry;
+			back = entry;
+			if (front == null) front = entry;
+			if (!entry.keepForever) linkOldestRecent(entry);
+		}
+		
+		void remove(HistoryEntry entry) {
+			if (entryByKey.remove(entry.entryId) != null) unlink(entry);
+		}
+		
+		void setKeepForever(HistoryEntry entry, boolean keepForever) {
+			if (entry.keepForever == keepForever) return;
+			entry.keepForever = keepForever;
+			if (keepForever) unlinkRecent(entry);
+			else linkRecentInHistoryOrder(entry);
+		}
+		
+		void clear() {
+			entryByKey.clear();
+			front = back = newestRecent = oldestRecent = null;
+			recentCount = 0;
+		}
+		
+		List<HistoryEntry> toList() {
+			final List<HistoryEntry> entries = new ArrayList<>(entryByKey.size());
+			for (HistoryEntry entry = front; entry != null; entry = entry.next) {
+				entries.add(entry);
+			}
+			return entries;
+		}
+		
+		private void unlink(HistoryEntry entry) {
+			if (entry.previous != null) entry.previous.next = entry.next;
+			else front = entry.next;
+			if (entry.next != null) entry.next.previous = entry.previous;
+			else back = entry.previous;
+			entry.previous = entry.next = null;
+			if (!entry.keepForever) unlinkRecent(entry);
+		}
+		
+		private void linkNewestRecent(HistoryEntry entry) {
+			entry.previousRecent = null;
+			entry.nextRecent = newestRecent;
+			if (newestRecent != null) newestRecent.previousRecent = entry;
+			newestRecent = entry;
+			if (oldestRecent == null) oldestRecent = entry;
+			recentCount++;
+		}
+		
+		/*
+		 * The recent segment keeps history order, so the entry goes before the next recent entry after it
+		 */
+		private void linkRecentInHistoryOrder(HistoryEntry entry) {
+			HistoryEntry nextRecent = entry.next;
+			while (nextRecent != null && nextRecent.keepForever) {
+				nextRecent = nextRecent.next;
+			}
+			if (nextRecent == null) {
+				linkOldestRecent(entry);
+				return;
+			}
+			entry.nextRecent = nextRecent;
+			entry.previousRecent = nextRecent.previousRecent;
+			if (nextRecent.previousRecent != null) nextRecent.previousRecent.nextRecent = entry;
+			else newestRecent = entry;
+			nextRecent.previousRecent = entry;
+			recentCount++;
+		}
+		
+		private void linkOldestRecent(HistoryEntry entry) {
+			entry.nextRecent = null;
+			entry.previousRecent = oldestRecent;
+			if (oldestRecent != null) oldestRecent.nextRecent = entry;
+			oldestRecent = entry;
+			if (newestRecent == null) newestRecent = entry;
+			recentCount++;
+		}
+		
+		private void unlinkRecent(HistoryEntry entry) {
+			if (entry.previousRecent != null) entry.previousRecent.nextRecent = entry.nextRecent;
+			else newestRecent = entry.nextRecent;
+			if (entry.nextRecent != null) entry.nextRecent.previousRecent = entry.previousRecent;
+			else oldestRecent = entry.previousRecent;
+			entry.previousRecent = entry.nextRecent = null;
+			recentCount--;
+		}
+	}
 }
@@ -5,10 +5,13 @@ import java.util.function.Function;
 
 import org.eclipse.jface.viewers.StyledCellLabelProvider;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.RGB;
 import org.eclipse.swt.widgets.TableColumn;
 
+import dakara.eclipse.plugin.stringscore.RankedItem;
+
 public class ColumnOptions<T> {
 	private TableColumn column;
 	final public int columnIndex;
@@ -26,6 +29,12 @@ public class ColumnOptions<T> {
 	private int columnAlignment = SWT.LEFT;
 	private int columnWidthPercent = 0;
 	private boolean enableBackgroundSelection = true;
+	private RankedItem<T> fieldOrdinalSource;
+	private int fieldOrdinal = -1;
+	private Color foreground;
+	private Color[] rowStateBackgrounds;
+	private final HighlightRunCache<T> highlightRuns = new HighlightRunCache<>();
+	private final PrefetchedCells<T> prefetchedCells = new PrefetchedCells<>();
 	
 	public ColumnOptions(KaviListColumns<T> kaviListColumns, String columnId, BiFunction<T, Integer, String> columnContentFn, int columnIndex) {
 		this.columnContentFn = columnContentFn;
@@ -82,6 +91,7 @@ public class ColumnOptions<T> {
 	
 	public ColumnOptions<T> fontColor(int red, int green, int blue) {
 		fontRGB = new RGB(red, green, blue);
+		foreground = null;
 		return this;
 	}
 	
@@ -100,6 +110,7 @@ public class ColumnOptions<T> {
 	
 	public ColumnOptions<T> backgroundColor(int red, int green, int blue) {
 		backgroundRGB = new RGB(red, green, blue);
+		rowStateBackgrounds = null;
 		return this;
 	}
 	
@@ -146,6 +157,7 @@ public class ColumnOptions<T> {
 	
 	public void setEnableBackgroundSelection(boolean enableBackgroundSelection) {
 		this.enableBackgroundSelection = enableBackgroundSelection;
+		rowStateBackgrounds = null;
 	}
 	
 	public Function<T, Boolean> getMarkerIndicatorProvider() {
@@ -156,4 +168,44 @@ public class ColumnOptions<T> {
 		this.markerIndicatorProvider = markerIndicatorProvider;
 		return this;
 	}
+	
+	/*
+	 * Ordinal of the ranked field matching this column.  Resolved once and reused while items share the same fields.
+	 */
+	public int fieldOrdinal(RankedItem<T> rankedItem) {
+		if (fieldOrdinalSource == null || !fieldOrdinalSource.sharesFieldsWith(rankedItem)) {
+			fieldOrdinal = rankedItem.fieldOrdinal(columnId);
+			fieldOrdinalSource = rankedItem;
+		}
+		return fieldOrdinal;
+	}
+	
+	/*
+	 * Resolved colors, cleared when the column colors change.  Backgrounds are indexed by row state.
+	 */
+	public Color getForeground() {
+		return foreground;
+	}
+	
+	public ColumnOptions<T> setForeground(Color foreground) {
+		this.foreground = foreground;
+		return this;
+	}
+	
+	public Color[] getRowStateBackgrounds() {
+		return rowStateBackgrounds;
+	}
+	
+	public ColumnOptions<T> setRowStateBackgrounds(Color[] rowStateBackgrounds) {
+		this.rowStateBackgrounds = rowStateBackgrounds;
+		return this;
+	}
+	
+	public HighlightRunCache<T> getHighlightRuns() {
+		return highlightRuns;
+	}
+	
+	public PrefetchedCells<T> getPrefetchedCells() {
+		return prefetchedCells;
+	}
 }
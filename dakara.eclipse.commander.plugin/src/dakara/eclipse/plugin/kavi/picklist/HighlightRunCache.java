@@ -0,0 +1,78 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.graphics.Color;
+
+import dakara.eclipse.plugin.stringscore.RankedItem;
+
+/*
+ * Match highlight style ranges of a single column.
+ * - contiguous matched characters are merged into one run, so there is one StyleRange per run rather than per character
+ * - ranges are cached by data item and reused while the item keeps the same ranking, repaints and scrolling allocate nothing
+ * - a different ranking of the item, a new score generation, replaces the cached ranges
+ * Only used from the UI thread.
+ */
+public class HighlightRunCache<T> {
+	private static final int MAX_ENTRIES = 512;
+	private final Map<T, CachedRuns<T>> runsByItem = new LinkedHashMap<T, CachedRuns<T>>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<T, CachedRuns<T>> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	public StyleRange[] styleRanges(RankedItem<T> rankedItem, int fieldOrdinal, Color highlightColor) {
+		CachedRuns<T> cached = runsByItem.get(rankedItem.dataItem);
+		if (cached != null && cached.fieldOrdinal == fieldOrdinal && cached.rankedItem.sameRanking(rankedItem)) {
+			// following lookups of this generation are then an identity check
+			cached.rankedItem = rankedItem;
+			return cached.styleRanges;
+		}
+		StyleRange[] styleRanges = createRuns(rankedItem, fieldOrdinal, highlightColor);
+		runsByItem.put(rankedItem.dataItem, new CachedRuns<>(rankedItem, fieldOrdinal, styleRanges));
+		return styleRanges;
+	}
+
+	public HighlightRunCache<T> clear() {
+		runsByItem.clear();
+		return this;
+	}
+
+	static StyleRange[] createRuns(RankedItem<?> rankedItem, int fieldOrdinal, Color highlightColor) {
+		final int matchCount = rankedItem.matchCount(fieldOrdinal);
+		int runCount = 0;
+		for (int matchIndex = 0; matchIndex < matchCount; matchIndex++) {
+			if (!continuesRun(rankedItem, fieldOrdinal, matchIndex)) runCount++;
+		}
+
+		final StyleRange[] styleRanges = new StyleRange[runCount];
+		int runIndex = -1;
+		for (int matchIndex = 0; matchIndex < matchCount; matchIndex++) {
+			if (continuesRun(rankedItem, fieldOrdinal, matchIndex)) {
+				styleRanges[runIndex].length++;
+			} else {
+				styleRanges[++runIndex] = new StyleRange(rankedItem.matchPosition(fieldOrdinal, matchIndex), 1, null, highlightColor);
+			}
+		}
+		return styleRanges;
+	}
+
+	private static boolean continuesRun(RankedItem<?> rankedItem, int fieldOrdinal, int matchIndex) {
+		return matchIndex > 0 && rankedItem.matchPosition(fieldOrdinal, matchIndex) == rankedItem.matchPosition(fieldOrdinal, matchIndex - 1) + 1;
+	}
+
+	private static final class CachedRuns<T> {
+		private RankedItem<T> rankedItem;
+		private final int fieldOrdinal;
+		private final StyleRange[] styleRanges;
+		private CachedRuns(RankedItem<T> rankedItem, int fieldOrdinal, StyleRange[] styleRanges) {
+			this.rankedItem = rankedItem;
+			this.fieldOrdinal = fieldOrdinal;
+			this.styleRanges = styleRanges;
+		}
+	}
+}
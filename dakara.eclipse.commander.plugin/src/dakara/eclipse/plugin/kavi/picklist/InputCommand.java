@@ -1,11 +1,26 @@
 package dakara.eclipse.plugin.kavi.picklist;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import dakara.eclipse.plugin.stringscore.MatchPattern;
+
+/*
+ * Immutable parsed input.  Commands are cached by raw text, and the filter part is hash consed so that
+ * commands with the same filters share one ColumnFilters instance and isFilterEqual is a pointer check.
+ * - words of a column filter starting with '!' are exclusion terms, rows containing them are filtered out
+ * - a column filter starting with '~' is a regex, one starting with '*' is a glob
+ */
 public class InputCommand {
+	private static final int MAX_CACHED = 1024;
+	private static final Map<String, InputCommand> commandByText = new ConcurrentHashMap<>();
+	private static final Map<ColumnFilters, ColumnFilters> internedFilters = new ConcurrentHashMap<>();
+
 	public final String filterText;
-	private final List<String> columnFilters;
+	private final ColumnFilters columnFilters;
 	public final String fastSelectIndex;
 	public final boolean fastSelect;
 	public final boolean multiSelect;
@@ -15,8 +30,12 @@ public class InputCommand {
 	public final boolean selectAll;
 
 	public InputCommand(String filterText, List<String> columnFilters, String fastSelectIndex, boolean fastSelect, boolean multiSelect, boolean selectRange, boolean inverseSelection, boolean selectAll, boolean isColumnFiltering) {
+		this(filterText, columnFilters, Collections.emptyList(), fastSelectIndex, fastSelect, multiSelect, selectRange, inverseSelection, selectAll, isColumnFiltering);
+	}
+
+	private InputCommand(String filterText, List<String> columnFilters, List<List<String>> columnExclusions, String fastSelectIndex, boolean fastSelect, boolean multiSelect, boolean selectRange, boolean inverseSelection, boolean selectAll, boolean isColumnFiltering) {
 		this.filterText = filterText;
-		this.columnFilters = columnFilters;
+		this.columnFilters = intern(new ColumnFilters(columnFilters, columnExclusions, isColumnFiltering));
 		this.fastSelectIndex = fastSelectIndex;
 		this.fastSelect = fastSelect;
 		this.multiSelect = multiSelect;
@@ -25,39 +44,112 @@ public class InputCommand {
 		this.selectAll = selectAll;
 		this.isColumnFiltering = isColumnFiltering;
 	}
-	
+
 	public String getColumnFilter(final int column) {
 		// When we only have 1 filter it should be applied to all columns
-		// TODO - we can improve performance here by making a StringCursorPrimitive once that will be reused for all of the row matches
-		if (!isColumnFiltering) return columnFilters.get(0);
-		
-		if (column >= columnFilters.size()) return "";
-		
-		return columnFilters.get(column);
+		if (!isColumnFiltering) return columnFilters.filters.get(0);
+
+		if (column >= columnFilters.filters.size()) return "";
+
+		return columnFilters.filters.get(column);
+	}
+
+	/*
+	 * Exclusion terms of the column, same columns as getColumnFilter.  Empty when there are none.
+	 */
+	public List<String> getColumnExclusions(final int column) {
+		if (!isColumnFiltering) return columnFilters.exclusionsOf(0);
+		return columnFilters.exclusionsOf(column);
+	}
+
+	/*
+	 * Regex or glob of the column, same columns as getColumnFilter.  null when the column filter is scored as fuzzy text.
+	 */
+	public MatchPattern getColumnPattern(final int column) {
+		if (!isColumnFiltering) return columnFilters.patternOf(0);
+		return columnFilters.patternOf(column);
+	}
+
+	public boolean hasExclusions() {
+		return columnFilters.hasExclusions;
 	}
-	
+
 	public static InputCommand parse(String inputText) {
-		return InputCommand.makeInputCommand(inputText);
+		InputCommand inputCommand = commandByText.get(inputText);
+		if (inputCommand != null) return inputCommand;
+
+		inputCommand = InputCommand.makeInputCommand(inputText);
+		if (commandByText.size() >= MAX_CACHED) commandByText.clear();
+		commandByText.put(inputText, inputCommand);
+		return inputCommand;
 	}
-	
+
 	public boolean isFilterEqual(InputCommand otherInput) {
-		return columnFilters.equals(otherInput.columnFilters) && isColumnFiltering == otherInput.isColumnFiltering;
+		// interned filters are the same instance, the equals check only matters after the intern pool was cleared
+		return columnFilters == otherInput.columnFilters || columnFilters.equals(otherInput.columnFilters);
+	}
+
+	private static ColumnFilters intern(ColumnFilters columnFilters) {
+		ColumnFilters interned = internedFilters.get(columnFilters);
+		if (interned != null) return interned;
+		if (internedFilters.size() >= MAX_CACHED) internedFilters.clear();
+		interned = internedFilters.putIfAbsent(columnFilters, columnFilters);
+		return interned != null ? interned : columnFilters;
 	}
 
+	/*
+	 * Single pass over the input.  Same results as splitting on '/' and the first part on ',' with String.split,
+	 * which drops trailing empty parts.
+	 * - text before the first '/' are the column filters, separated by ','
+	 * - the fast select is the 2nd part, or the 3rd after '//'
+	 */
 	private static InputCommand makeInputCommand(String commandPart) {
-		boolean fastSelectActive = commandPart.contains("/");
-		boolean multiSelectActive = commandPart.contains("//");
-		boolean isColumnFiltering = commandPart.contains(",");
-		
-		String[] splitPart = commandPart.split("/");
-		String[] columnFilters;
-		if (splitPart.length == 0) columnFilters = new String[]{""};
-		else columnFilters = splitPart[0].split(",");
-				
+		boolean fastSelectActive = false;
+		boolean multiSelectActive = false;
+		boolean isColumnFiltering = false;
+
+		final List<String> slashParts = new ArrayList<>(3);
+		final List<String> columnFilters = new ArrayList<>(2);
+		int partStart = 0;
+		int columnStart = 0;
+		for (int index = 0; index < commandPart.length(); index++) {
+			final char character = commandPart.charAt(index);
+			if (character == ',') {
+				isColumnFiltering = true;
+				if (slashParts.isEmpty()) {
+					columnFilters.add(commandPart.substring(columnStart, index));
+					columnStart = index + 1;
+				}
+			} else if (character == '/') {
+				if (fastSelectActive && index == partStart) multiSelectActive = true;
+				fastSelectActive = true;
+				if (slashParts.isEmpty()) columnFilters.add(commandPart.substring(columnStart, index));
+				slashParts.add(commandPart.substring(partStart, index));
+				partStart = index + 1;
+			}
+		}
+		if (slashParts.isEmpty()) columnFilters.add(commandPart.substring(columnStart));
+		slashParts.add(commandPart.substring(partStart));
+
+		removeTrailingEmpty(slashParts);
+		if (slashParts.isEmpty() || slashParts.get(0).isEmpty()) {
+			columnFilters.clear();
+			columnFilters.add("");
+		} else {
+			removeTrailingEmpty(columnFilters);
+		}
+
+		final List<List<String>> columnExclusions = new ArrayList<>(columnFilters.size());
+		for (int column = 0; column < columnFilters.size(); column++) {
+			final List<String> exclusions = new ArrayList<>(0);
+			columnFilters.set(column, removeExclusions(columnFilters.get(column), exclusions));
+			columnExclusions.add(exclusions);
+		}
+
 		String fastSelect = null;
-		if (splitPart.length == 2) fastSelect = splitPart[1];
-		if (splitPart.length == 3) fastSelect = splitPart[2];  // multi select
-		
+		if (slashParts.size() == 2) fastSelect = slashParts.get(1);
+		if (slashParts.size() == 3) fastSelect = slashParts.get(2);  // multi select
+
 		boolean selectRange = false;
 		boolean inverseSelection = false;
 		boolean selectAll = false;
@@ -71,8 +163,100 @@ public class InputCommand {
 			} else if (fastSelect.startsWith(" ")) {
 				fastSelect = fastSelect.substring(1);
 				selectAll = true;
-			} 
+			}
+		}
+		return new InputCommand(commandPart, columnFilters, columnExclusions, fastSelect, fastSelectActive, multiSelectActive, selectRange, inverseSelection, selectAll, isColumnFiltering);
+	}
+
+	/*
+	 * Moves the words starting with '!' into exclusions and returns the rest of the filter.
+	 * A leading or trailing space selects how the filter is scored, so it is kept.
+	 */
+	private static String removeExclusions(String filter, List<String> exclusions) {
+		if (filter.indexOf('!') < 0) return filter;
+
+		final StringBuilder remaining = new StringBuilder(filter.length());
+		int wordStart = 0;
+		for (int index = 0; index <= filter.length(); index++) {
+			if (index < filter.length() && filter.charAt(index) != ' ') continue;
+			if (index > wordStart) {
+				if (filter.charAt(wordStart) == '!' && index - wordStart > 1) {
+					exclusions.add(filter.substring(wordStart + 1, index));
+				} else {
+					if (remaining.length() > 0) remaining.append(' ');
+					remaining.append(filter, wordStart, index);
+				}
+			}
+			wordStart = index + 1;
+		}
+		if (exclusions.isEmpty()) return filter;
+		if (remaining.length() == 0) return "";
+
+		if (filter.charAt(0) == ' ') remaining.insert(0, ' ');
+		if (filter.charAt(filter.length() - 1) == ' ') remaining.append(' ');
+		return remaining.toString();
+	}
+
+	private static void removeTrailingEmpty(List<String> parts) {
+		while (!parts.isEmpty() && parts.get(parts.size() - 1).isEmpty()) {
+			parts.remove(parts.size() - 1);
+		}
+	}
+
+	private static final class ColumnFilters {
+		private final List<String> filters;
+		private final List<List<String>> exclusions;
+		private final boolean hasExclusions;
+		private final MatchPattern[] patterns;
+		private final boolean isColumnFiltering;
+		private final int hashCode;
+
+		ColumnFilters(List<String> filters, List<List<String>> exclusions, boolean isColumnFiltering) {
+			this.filters = Collections.unmodifiableList(new ArrayList<>(filters));
+			final List<List<String>> columnExclusions = new ArrayList<>(exclusions.size());
+			boolean hasExclusions = false;
+			for (List<String> terms : exclusions) {
+				columnExclusions.add(Collections.unmodifiableList(new ArrayList<>(terms)));
+				hasExclusions |= !terms.isEmpty();
+			}
+			this.exclusions = Collections.unmodifiableList(columnExclusions);
+			this.hasExclusions = hasExclusions;
+			this.isColumnFiltering = isColumnFiltering;
+			this.patterns = new MatchPattern[filters.size()];
+			for (int column = 0; column < filters.size(); column++) {
+				patterns[column] = makePattern(filters.get(column).trim());
+			}
+			this.hashCode = 31 * (31 * filters.hashCode() + (hasExclusions ? this.exclusions.hashCode() : 0)) + Boolean.hashCode(isColumnFiltering);
+		}
+
+		private static MatchPattern makePattern(String filter) {
+			if (filter.length() > 1 && filter.charAt(0) == '~') return MatchPattern.regex(filter.substring(1));
+			if (filter.length() > 1 && filter.charAt(0) == '*') return MatchPattern.glob(filter);
+			return null;
+		}
+
+		MatchPattern patternOf(int column) {
+			if (column >= patterns.length) return null;
+			return patterns[column];
+		}
+
+		List<String> exclusionsOf(int column) {
+			if (column >= exclusions.size()) return Collections.emptyList();
+			return exclusions.get(column);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) return true;
+			if (!(obj instanceof ColumnFilters)) return false;
+			ColumnFilters other = (ColumnFilters) obj;
+			return hashCode == other.hashCode && isColumnFiltering == other.isColumnFiltering && filters.equals(other.filters) &&
+				   hasExclusions == other.hasExclusions && (!hasExclusions || exclusions.equals(other.exclusions));
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
 		}
-		return new InputCommand(commandPart, Arrays.asList(columnFilters), fastSelect, fastSelectActive, multiSelectActive, selectRange, inverseSelection, selectAll, isColumnFiltering);
 	}
 }
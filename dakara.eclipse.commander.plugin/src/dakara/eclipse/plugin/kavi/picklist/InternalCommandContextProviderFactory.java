@@ -1,15 +1,28 @@
 package dakara.eclipse.plugin.kavi.picklist;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.BiFunction;
 
+import org.eclipse.swt.SWT;
 import org.eclipse.swt.dnd.Clipboard;
 import org.eclipse.swt.dnd.TextTransfer;
 import org.eclipse.swt.dnd.Transfer;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
 
+import dakara.eclipse.plugin.command.Constants;
 import dakara.eclipse.plugin.command.settings.PersistedWorkingSet;
+import dakara.eclipse.plugin.log.EclipsePluginLogger;
 /*
  * TODO - copy to clipboard commands
- * - export/import history/preferences as JSON.  maybe just export/import from clipboard as first option.  Import would add to existing, not replace.
- *    - option to export hidden or non active items as well.
+ * - export/import preferences as JSON.  History is exported and imported from a file by the working set commands.
  * - toggle favorite
  * - show table headers, needed for resizing
  * - sort on other columns
@@ -20,6 +33,8 @@ import dakara.eclipse.plugin.command.settings.PersistedWorkingSet;
  * - show state or status of properties in a 2nd column.
  */
 public class InternalCommandContextProviderFactory {
+	private static final EclipsePluginLogger logger = new EclipsePluginLogger(Constants.BUNDLE_ID);
+	
 	public static InternalCommandContextProvider makeProvider(KaviPickListDialog kaviPickList) {
 		InternalCommandContextProvider provider = new InternalCommandContextProvider();
 		addDefaultInternalCommands(provider, kaviPickList);
@@ -63,6 +78,55 @@ public class InternalCommandContextProviderFactory {
 			kaviPickList.setCurrentProvider("working").refreshFromContentProvider();
 			historyStore.save();
 		});
+		contextProvider.addCommand("working", "working: export to file", (provider) -> {
+			final String fileName = chooseFile(kaviPickList, SWT.SAVE);
+			kaviPickList.togglePreviousProvider().refreshFromContentProvider();
+			if (fileName == null) return;
+			final Display display = kaviPickList.getShell().getDisplay();
+			CompletableFuture.runAsync(() -> {
+				try (Writer out = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+					historyStore.exportHistory(out);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).whenComplete((result, error) -> {
+				if (error != null) reportFailure(display, kaviPickList, "export to " + fileName, error);
+			});
+		});
+		// imports run in the background, the working list is refreshed once the merged history is in place
+		contextProvider.addCommand("working", "working: import from file", (provider) -> {
+			final String fileName = chooseFile(kaviPickList, SWT.OPEN);
+			kaviPickList.togglePreviousProvider().refreshFromContentProvider();
+			if (fileName == null) return;
+			final Display display = kaviPickList.getShell().getDisplay();
+			CompletableFuture.runAsync(() -> {
+				try (Reader in = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+					historyStore.importHistory(in);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).whenComplete((result, error) -> {
+				if (error != null) reportFailure(display, kaviPickList, "import from " + fileName, error);
+				display.asyncExec(kaviPickList::refreshList);
+			});
+		});
+	}
+	
+	private static void reportFailure(Display display, KaviPickListDialog<?> kaviPickList, String action, Throwable error) {
+		final Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+		logger.error("Working set " + action + " failed", cause);
+		if (display.isDisposed()) return;
+		display.asyncExec(() -> kaviPickList.setStatusMessage(action + " failed: " + cause.getMessage()));
+	}
+	
+	private static String chooseFile(KaviPickListDialog<?> kaviPickList, int style) {
+		FileDialog fileDialog = new FileDialog(kaviPickList.getShell(), style);
+		fileDialog.setFilterExtensions(new String[] {"*.json", "*.*"});
+		if (style == SWT.SAVE) {
+			fileDialog.setFileName("history.json");
+			fileDialog.setOverwrite(true);
+		}
+		return fileDialog.open();
 	}
 	
 	public static void installProvider(InternalCommandContextProvider contextProvider, KaviPickListDialog<? extends Object> kaviPickList) {
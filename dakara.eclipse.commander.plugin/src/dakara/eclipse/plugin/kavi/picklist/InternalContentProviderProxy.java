@@ -1,20 +1,22 @@
 package dakara.eclipse.plugin.kavi.picklist;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import dakara.eclipse.plugin.stringscore.RankedItem;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 public class InternalContentProviderProxy<U> {
 	public enum RowState {
@@ -31,12 +33,17 @@ public class InternalContentProviderProxy<U> {
 	private BiConsumer<U, InternalContentProviderProxy> resolvedContextActionProvider;
 	private Consumer<List<U>> setMultiResolvedAction;
 	private List<RankedItem<U>> tableEntries = new ArrayList<>();
-	private final Set<RankedItem<U>> selectedEntries = new HashSet<>();
+	private final SelectionModel<U> selectionModel = new SelectionModel<>();
+	private boolean viewOnlySelected = false;
+	// rows whose cursor or selection state changed since the table was last updated
+	private final IntArrayList changedRows = new IntArrayList();
+	private boolean allRowsChanged = false;
 	private int rowCursorIndex = 0;
 	private final Function<InputState, List<RankedItem<U>>> listContentProvider;
 	public final String name;
 	private KaviListColumns<U> kaviListColumns;
 	private InputState previousInputState = null;
+	private volatile boolean contentStale = false;
 	private boolean restoreFilterOnChange = false;
 	private boolean showAllWhenNoFilter = true;
 	private Function<Stream<RankedItem<U>>, Stream<RankedItem<U>>> sortResolverFn;
@@ -89,15 +96,30 @@ public class InternalContentProviderProxy<U> {
 	public InternalContentProviderProxy<U> updateTableEntries(InputState inputState) {
 		final boolean filterChanged = filterChanged(inputState);
 		
-		if (filterChanged) rowCursorIndex = 0;
+		if (filterChanged) moveCursorTo(0);
 		
 		if (!showAllWhenNoFilter && inputState.inputCommand.filterText.length() == 0 && !inputState.inputCommand.fastSelect) setTableEntries(new ArrayList<>());
-		else if (!filterChanged) return this;
-		else setTableEntries(listContentProvider.apply(inputState));
+		else if (!filterChanged && !contentStale) return this;
+		else {
+			// cleared first, content marked stale while filtering is filtered again by the next update
+			contentStale = false;
+			setTableEntries(listContentProvider.apply(inputState));
+		}
+		return this;
+	}
+	
+	/*
+	 * The content provider returns different content for the same input, the next update filters again.
+	 * Unlike a filter change, the cursor is kept.
+	 */
+	public InternalContentProviderProxy<U> markContentStale() {
+		contentStale = true;
 		return this;
 	}
 	
 	public InternalContentProviderProxy<U> refreshFromContentProvider() {
+		// the same ranked items may be published again with changed markers or labels
+		kaviListColumns.invalidatePrefetched();
 		setTableEntries(listContentProvider.apply(previousInputState));
 		return this;
 	}
@@ -111,7 +133,16 @@ public class InternalContentProviderProxy<U> {
 		
 		tableStream = applyFilters(tableStream);
 		
-		this.tableEntries = tableStream.collect(Collectors.toList());
+		List<RankedItem<U>> entries = tableStream.collect(Collectors.toList());
+		if (viewOnlySelected) {
+			List<RankedItem<U>> selectedRows = new ArrayList<>();
+			for (RankedItem<U> entry : entries) {
+				if (selectionModel.isSelected(entry)) selectedRows.add(entry);
+			}
+			entries = selectedRows;
+		}
+		selectionModel.publish(entries);
+		this.tableEntries = entries;
 		return this;
 	}
 	
@@ -130,9 +161,9 @@ public class InternalContentProviderProxy<U> {
 
 	public InternalContentProviderProxy<U> moveCursorDown() {
 		if (rowCursorIndex == tableEntries.size() - 1) {
-			rowCursorIndex = -1;
+			moveCursorTo(-1);
 		} else if (tableEntries.size() > rowCursorIndex + 1) {
-			rowCursorIndex++;
+			moveCursorTo(rowCursorIndex + 1);
 		}
 
 		return this;
@@ -140,13 +171,47 @@ public class InternalContentProviderProxy<U> {
 
 	public InternalContentProviderProxy<U> moveCursorUp() {
 		if (rowCursorIndex >= 0) {
-			rowCursorIndex--;
+			moveCursorTo(rowCursorIndex - 1);
 		} else {
-			rowCursorIndex = tableEntries.size() - 1;
+			moveCursorTo(tableEntries.size() - 1);
 		}
 
 		return this;
 	}
+	
+	private void moveCursorTo(int newRowCursorIndex) {
+		markRowChanged(rowCursorIndex);
+		rowCursorIndex = newRowCursorIndex;
+		markRowChanged(rowCursorIndex);
+	}
+	
+	// marked from both the UI thread and the background refresh, when the filter change resets the cursor
+	private synchronized void markRowChanged(int rowIndex) {
+		if (rowIndex >= 0) changedRows.add(rowIndex);
+	}
+	
+	private synchronized void markAllRowsChanged() {
+		allRowsChanged = true;
+	}
+	
+	/*
+	 * Report rows whose state changed since the last call, then forget them.
+	 * When too much changed to track individually allRowsChanged is run instead of rowChanged.
+	 */
+	public synchronized InternalContentProviderProxy<U> drainRowChanges(IntConsumer rowChanged, Runnable allRowsChanged) {
+		if (this.allRowsChanged) {
+			allRowsChanged.run();
+		} else {
+			changedRows.forEach(rowChanged);
+		}
+		clearRowChanges();
+		return this;
+	}
+	
+	private synchronized void clearRowChanges() {
+		changedRows.clear();
+		allRowsChanged = false;
+	}
 
 	public RankedItem<U> getCursorItem() {
 		if (rowCursorIndex < 0)
@@ -159,121 +224,114 @@ public class InternalContentProviderProxy<U> {
 	}
 	
 	public void setCursorIndex(int rowCursorIndex) {
-		this.rowCursorIndex = rowCursorIndex;
+		moveCursorTo(rowCursorIndex);
 	}
 
-	public Set<RankedItem<U>> getSelectedEntries() {
-		return selectedEntries;
+	public Collection<RankedItem<U>> getSelectedEntries() {
+		return selectionModel.selectedItems();
 	}
 	
-	public Set<RankedItem<U>> getSelectedEntriesImplied() {
-		if (selectedEntries.size() > 0) return selectedEntries;
-		final Set<RankedItem<U>> implied = new HashSet<>();
+	/*
+	 * Selected entries, or the cursor item when nothing is selected, or all entries when there is no cursor.
+	 * Selected entries are a snapshot, the table entries a read only view.
+	 */
+	public Collection<RankedItem<U>> getSelectedEntriesImplied() {
+		if (selectionModel.selectedCount() > 0) return selectionModel.selectedItems();
 		if (rowCursorIndex != -1) {
-			implied.add(getCursorItem());
-			return implied;
-		} else {
-			implied.addAll(tableEntries);
+			return Collections.singletonList(getCursorItem());
 		}
-		return implied;
+		return Collections.unmodifiableList(tableEntries);
 	}
 	
 	public int getRowIndex(RankedItem<U> rankedItem) {
-		return tableEntries.indexOf(rankedItem);
+		return selectionModel.rowOf(rankedItem);
 	}
 
 	public InternalContentProviderProxy<U> toggleSelectedState(RankedItem<U> item) {
-		if (selectedEntries.contains(item))
-			selectedEntries.remove(item);
-		else
-			selectedEntries.add(item);
-		rowCursorIndex = tableEntries.indexOf(item);
+		selectionModel.toggle(item);
+		moveCursorTo(getRowIndex(item));
 		return this;
 	}
 
 	public InternalContentProviderProxy<U> setSelectedState(List<RankedItem<U>> items, boolean selected) {
-		for (RankedItem<U> item : tableEntries) {
+		for (RankedItem<U> item : items) {
 			setSelectedState(item, selected);
 		}
 		return this;
 	}
 	
 	public InternalContentProviderProxy<U> setSelectedState(RankedItem<U> item, boolean selected) {
-		if (selected)
-			selectedEntries.add(item);
-		else
-			selectedEntries.remove(item);
+		selectionModel.setSelected(item, selected);
+		markRowChanged(getRowIndex(item));
 		return this;
 	}
 
 	public InternalContentProviderProxy<U> toggleSelectedStateOfVisible() {
 
-		if (isAnyVisibleItemSelected()) {
-			setSelectedState(tableEntries, false);
+		if (selectionModel.isAnyVisibleSelected()) {
+			selectionModel.deselectVisible();
 		} else {
-			selectedEntries.addAll(tableEntries);
+			selectionModel.selectVisible();
 		}
 		rowCursorIndex = -1;
+		markAllRowsChanged();
 
 		return this;
 	}
-	
-	private boolean isAnyVisibleItemSelected() {
-		for (RankedItem<U> rankedItem : tableEntries) {
-			if (selectedEntries.contains(rankedItem)) {
-				return true;
-			}
-		}
-		return false;
-	}
 
 	public InternalContentProviderProxy<U> selectRange(RankedItem<U> item) {
 		if (rowCursorIndex < 0)
 			return this;
 
 		final int rowAnchor = rowCursorIndex;
-		final boolean anchorSelected = selectedEntries.contains(tableEntries.get(rowAnchor));
-		final int currentItemIndex = tableEntries.indexOf(item);
+		final boolean anchorSelected = selectionModel.isRowSelected(rowAnchor);
+		final int currentItemIndex = getRowIndex(item);
 		final int rangeCount = Math.abs(rowAnchor - currentItemIndex) + 1;
 		final int rangeStart = Math.min(rowCursorIndex, currentItemIndex);
 		for (int rowIndex = rangeStart; rowIndex < rangeCount + rangeStart; rowIndex++) {
-			setSelectedState(tableEntries.get(rowIndex), anchorSelected);
+			selectionModel.setRowSelected(rowIndex, anchorSelected);
+			markRowChanged(rowIndex);
 		}
 
-		rowCursorIndex = currentItemIndex;
+		moveCursorTo(currentItemIndex);
 		return this;
 	}
 
 	public InternalContentProviderProxy<U> inverseSelectedState() {
-		for (RankedItem<U> rankedItem : tableEntries) {
-			if (selectedEntries.contains(rankedItem)) {
-				selectedEntries.remove(rankedItem);
-			} else {
-				selectedEntries.add(rankedItem);
-			}
-		}
+		selectionModel.invertVisible();
+		markAllRowsChanged();
 		return this;
 	}
 
 	public int itemRowState(RankedItem<U> item) {
 		int state = 0;
-		if (selectedEntries.contains(item))
+		if (selectionModel.isSelected(item))
 			state |= RowState.SELECTED.value;
-		if (rowCursorIndex > -1 && tableEntries.indexOf(item) == rowCursorIndex)
+		// compare with the cursor row directly, a row lookup would index all rows
+		final List<RankedItem<U>> tableEntries = this.tableEntries;
+		if (rowCursorIndex > -1 && rowCursorIndex < tableEntries.size() && tableEntries.get(rowCursorIndex).dataItem.equals(item.dataItem))
 			state |= RowState.CURSOR.value;
 
 		return state;
 	}
 
 	public InternalContentProviderProxy<U> toggleViewOnlySelected() {
-		if (!filterResolvers.containsKey("filterSelected"))
-			filterResolvers.put("filterSelected", stream -> stream.filter(item -> selectedEntries.contains(item)));
-		else filterResolvers.remove("filterSelected");
+		viewOnlySelected = !viewOnlySelected;
 		return this;
 	}
 
 	public InternalContentProviderProxy<U> clearSelections() {
-		selectedEntries.clear();
+		selectionModel.clear();
+		markAllRowsChanged();
+		return this;
+	}
+	
+	/*
+	 * Forget selections and their ordinals, for when the content of the provider is replaced
+	 */
+	public InternalContentProviderProxy<U> resetSelections() {
+		selectionModel.reset();
+		markAllRowsChanged();
 		return this;
 	}
 	
@@ -290,9 +348,9 @@ public class InternalContentProviderProxy<U> {
 		if (tableEntries.isEmpty()) return isResolved;
 		
 		if (setMultiResolvedAction != null)  {
-			if (selectedEntries.size() == 0 && rowCursorIndex > -1) toggleSelectedState(tableEntries.get(rowCursorIndex));
+			if (selectionModel.selectedCount() == 0 && rowCursorIndex > -1) toggleSelectedState(tableEntries.get(rowCursorIndex));
 			isResolved = true;
-			setMultiResolvedAction.accept(selectedEntries.stream().map(rankedItem -> rankedItem.dataItem).collect(Collectors.toList()));
+			setMultiResolvedAction.accept(getSelectedEntries().stream().map(rankedItem -> rankedItem.dataItem).collect(Collectors.toList()));
 		}
 		if (selectedElement != null && resolvedActionProvider != null) {
 			isResolved = true;
@@ -304,10 +362,11 @@ public class InternalContentProviderProxy<U> {
 	
 	private RankedItem<U> getCursoredOrDefaultElement() {
 		RankedItem<U> selectedElement = null;
-		if (getSelectedEntries().size() == 0) {
+		final Collection<RankedItem<U>> selectedEntries = getSelectedEntries();
+		if (selectedEntries.size() == 0) {
 			selectedElement = (RankedItem<U>) getCursorItem();
-		} else if (getSelectedEntries().size() == 1) {
-			selectedElement = selectedEntries.stream().findFirst().get();
+		} else if (selectedEntries.size() == 1) {
+			selectedElement = selectedEntries.iterator().next();
 		}
 		return selectedElement;
 	}
@@ -343,7 +402,7 @@ public class InternalContentProviderProxy<U> {
 	}
 
 	public InternalContentProviderProxy<U> clearCursor() {
-		rowCursorIndex = -1;
+		moveCursorTo(-1);
 		return this;
 	}
 	
@@ -1,12 +1,15 @@
 package dakara.eclipse.plugin.kavi.picklist;
 
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 import org.eclipse.jface.resource.JFaceResources;
 import org.eclipse.jface.resource.LocalResourceManager;
@@ -35,6 +38,9 @@ import dakara.eclipse.plugin.baseconverter.Base26AlphaBijectiveConverter;
 import dakara.eclipse.plugin.command.Constants;
 import dakara.eclipse.plugin.log.EclipsePluginLogger;
 import dakara.eclipse.plugin.stringscore.RankedItem;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.PublishSubject;
 
 public class KaviList<T> {
@@ -45,12 +51,17 @@ public class KaviList<T> {
 	
 	private InternalContentProviderProxy<T> previousProvider = null;
 	private List<RankedItem<T>> currentContent = null;
-	private BiConsumer<List<RankedItem<T>>, Set<RankedItem<T>>> changedAction = null;
-	private BiConsumer<Set<RankedItem<T>>, InputCommand> fastSelectAction = null;
+	// content currently shown by the table, only accessed from the UI thread
+	private List<RankedItem<T>> displayedContent = null;
+	private int displayedFastSelectCharacters = 0;
+	private BiConsumer<List<RankedItem<T>>, Collection<RankedItem<T>>> changedAction = null;
+	private BiConsumer<Collection<RankedItem<T>>, InputCommand> fastSelectAction = null;
+	private IntConsumer viewPortAction = null;
 	@SuppressWarnings("rawtypes")
 	private Map<String, InternalContentProviderProxy> listContentProviders = new LinkedHashMap<>();
 	
 	private String currentContentProvider;
+	private boolean ownerDraw = false;
 
 	private TableViewer tableViewer;
 	private Table table;
@@ -58,18 +69,39 @@ public class KaviList<T> {
 	private LocalResourceManager resourceManager = new LocalResourceManager(JFaceResources.getResources());
 	
 	private PublishSubject<String> subjectFilter = PublishSubject.create();
+	private PublishSubject<Boolean> subjectPrefetch = PublishSubject.create();
+	// prefetches run one at a time, both the refresh and view port changes prefetch on this scheduler.  Shut down with the list.
+	private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Kavi list prefetch");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Scheduler prefetchScheduler = Schedulers.from(prefetchExecutor);
+	private final CompositeDisposable subscriptions = new CompositeDisposable();
+	// view port of the table, written on the UI thread and read by the prefetch
+	private volatile int viewPortTopRow = 0;
+	private volatile int viewPortRows = 0;
+	
+	/*
+	 * Kinds of UI updates, in the order they are applied within a frame.  Fast selects and selection actions are enqueued, not coalesced.
+	 */
+	private enum UiUpdate { TABLE_REFRESH, FAST_SELECT, SELECTION_ACTION, REDRAW }
+	private UiUpdateScheduler<UiUpdate> uiUpdates;
+	// only accessed from the UI thread
+	private boolean redrawSuspended = false;
 
 	public KaviList(KaviPickListDialog<T> rapidInputPickList) {
 		this.rapidInputPickList = rapidInputPickList;
 	}
 
-	public void setListContentChangedAction(BiConsumer<List<RankedItem<T>>, Set<RankedItem<T>>> changedAction) {
+	public void setListContentChangedAction(BiConsumer<List<RankedItem<T>>, Collection<RankedItem<T>>> changedAction) {
 		this.changedAction = changedAction;
 	}
 	
 	public <U> InternalContentProviderProxy<U> setListContentProvider(String name, Function<InputState, List<RankedItem<U>>> listContentProvider) {
 		InternalContentProviderProxy<U> contentProvider = new InternalContentProviderProxy<U>(this, name, listContentProvider);
-		KaviListColumns<U> kaviListColumns = new KaviListColumns<U>(tableViewer, contentProvider::itemRowState);
+		KaviListColumns<U> kaviListColumns = new KaviListColumns<U>(tableViewer, contentProvider::itemRowState, contentProvider::getRowIndex);
+		kaviListColumns.ownerDraw(ownerDraw);
 		kaviListColumns.addColumn("fastSelect", (item, rowIndex) -> alphaColumnConverter.toAlpha(rowIndex + 1)).width(0).searchable(false)
 					   .backgroundColor(242, 215, 135).setFont(JFaceResources.getFont(JFaceResources.TEXT_FONT)).setEnableBackgroundSelection(false);	
 		contentProvider.setKaviListColumns(kaviListColumns);
@@ -78,13 +110,30 @@ public class KaviList<T> {
 		return contentProvider;
 	}
 
+	/*
+	 * Render the table with owner draw instead of styled label providers.  Applies to providers installed after this call.
+	 */
+	public void setOwnerDraw(boolean ownerDraw) {
+		this.ownerDraw = ownerDraw;
+		for (InternalContentProviderProxy<?> contentProvider : listContentProviders.values()) {
+			contentProvider.getKaviListColumns().ownerDraw(ownerDraw);
+		}
+	}
+
 	public void requestRefresh(String filter) {
 		subjectFilter.onNext(filter);
 	}
 	
-	public void setFastSelectAction(BiConsumer<Set<RankedItem<T>>, InputCommand> fastSelectAction) {
+	public void setFastSelectAction(BiConsumer<Collection<RankedItem<T>>, InputCommand> fastSelectAction) {
 		this.fastSelectAction = fastSelectAction;
 	}
+	
+	/*
+	 * Called on the UI thread with the number of rows needed to fill the view port and the page below it, whenever it may have moved
+	 */
+	public void setViewPortAction(IntConsumer viewPortAction) {
+		this.viewPortAction = viewPortAction;
+	}
 
 	/*
 	 * This will be executed on rxJava thread due to debouncing
@@ -97,22 +146,79 @@ public class KaviList<T> {
 			final InputCommand inputCommand = InputCommand.parse(filter);
 			InputState inputState = new InputState(inputCommand, contentProvider(), previousProvider);
 			List<RankedItem<T>> tableEntries = contentProvider().updateTableEntries(inputState).getTableEntries();
-			if (contentChanged(tableEntries)) {
-				alphaColumnConverter = new Base26AlphaBijectiveConverter(tableEntries.size());
-				display.asyncExec(() -> doTableRefresh(tableEntries));
-			}
+			final List<RankedItem<T>> previousContent = currentContent;
+			final boolean contentChanged = contentChanged(tableEntries);
+			// compute the differences here, off of the UI thread
+			final int[] changedRows = contentChanged && previousContent != null ? RankedListDiff.changedRows(previousContent, tableEntries) : null;
+			if (contentChanged) alphaColumnConverter = new Base26AlphaBijectiveConverter(tableEntries.size());
 			
-			display.asyncExec(() -> fastSelectItem(inputCommand));
+			// the rows about to be shown are prepared on the prefetch thread, then the UI updates are scheduled in refresh order
+			prefetchScheduler.scheduleDirect(() -> {
+				if (contentChanged) {
+					prefetchRows();
+					uiUpdates.schedule(UiUpdate.TABLE_REFRESH, () -> doTableRefresh(previousContent, tableEntries, changedRows));
+				}
+				uiUpdates.enqueue(UiUpdate.FAST_SELECT, () -> fastSelectItem(inputCommand));
+			});
 		} catch (Throwable e) {
 			logger.error("Problem occurred refreshing content with filter '" +filter+ "'", e);
 		}
 	}
 	
-	private void doTableRefresh(List<RankedItem<T>> tableEntries) {
+	/*
+	 * Prepare the cells of the view port and one page either side so that the label providers only look them up.
+	 * Runs on the prefetch scheduler.
+	 */
+	private void prefetchRows() {
+		try {
+			final InternalContentProviderProxy<T> contentProvider = contentProvider();
+			if (contentProvider == null) return;
+			final int pageRows = Math.max(viewPortRows, 1);
+			contentProvider.getKaviListColumns().prefetch(contentProvider.getTableEntries(), viewPortTopRow - pageRows, viewPortTopRow + pageRows * 2);
+		} catch (Throwable e) {
+			logger.error("Problem occurred prefetching rows", e);
+		}
+	}
+	
+	/*
+	 * Called on the UI thread when the view port may have moved
+	 */
+	private void requestPrefetch() {
+		viewPortTopRow = table.getTopIndex();
+		viewPortRows = numberOfItemsVisible(table);
+		subjectPrefetch.onNext(true);
+		if (viewPortAction != null) viewPortAction.accept(viewPortTopRow + Math.max(viewPortRows, 1) * 2);
+	}
+	
+	/*
+	 * When the table still shows the content the differences were computed against, only the changed rows are
+	 * cleared and the item count adjusted.  Realized rows that did not change are kept as is.
+	 * Otherwise, such as after a provider change, all rows are replaced.
+	 */
+	private void doTableRefresh(List<RankedItem<T>> previousContent, List<RankedItem<T>> tableEntries, int[] changedRows) {
 		if (tableEntries == null) return;
-		changedAction.accept(contentProvider().getTableEntries(), contentProvider().getSelectedEntries());
-		table.removeAll();
-		table.setItemCount(contentProvider().getTableEntries().size());	
+		// a newer refresh is already queued
+		if (tableEntries != contentProvider().getTableEntries()) return;
+		
+		// in this pass, scheduling it would take another frame
+		changedAction.accept(tableEntries, contentProvider().getSelectedEntries());
+		final int fastSelectCharacters = alphaColumnConverter.getNumberOfCharacters();
+		if (changedRows == null || displayedContent != previousContent) {
+			table.removeAll();
+			table.setItemCount(tableEntries.size());
+		} else if (fastSelectCharacters != displayedFastSelectCharacters) {
+			// every fast select label changes width
+			table.setItemCount(tableEntries.size());
+			table.clearAll();
+		} else {
+			table.setItemCount(tableEntries.size());
+			if (changedRows.length > 0) table.clear(changedRows);
+		}
+		// rows whose cursor state changed, for example the cursor reset by the filter change
+		updateChangedRows();
+		displayedContent = tableEntries;
+		displayedFastSelectCharacters = fastSelectCharacters;
+		requestPrefetch();
 	}
 	
 	private boolean contentChanged(List<RankedItem<T>> newContent) {
@@ -136,27 +242,43 @@ public class KaviList<T> {
 			
 			if (inputCommand.multiSelect && inputCommand.selectRange) {
 				contentProvider().selectRange(contentProvider().getTableEntries().get(rowIndex));
-				tableViewer.refresh();
+				updateChangedRows();
 			} else if (inputCommand.multiSelect) {
 				contentProvider().toggleSelectedState(contentProvider().getTableEntries().get(rowIndex));
-				tableViewer.refresh();
+				updateChangedRows();
 			} else {
 				contentProvider().toggleSelectedState(contentProvider().getTableEntries().get(rowIndex));
-				table.getDisplay().asyncExec(this::handleSelection);
+				uiUpdates.enqueue(UiUpdate.SELECTION_ACTION, this::handleSelection);
 			}
 			
 			if (fastSelectAction != null) fastSelectAction.accept(contentProvider().getSelectedEntries(), inputCommand);
 		} else if (inputCommand.inverseSelection) {
 			contentProvider().inverseSelectedState();
-			tableViewer.refresh();
+			updateChangedRows();
 			if (fastSelectAction != null) fastSelectAction.accept(contentProvider().getSelectedEntries(), inputCommand);
 		} else if (inputCommand.selectAll) {
 			contentProvider().toggleSelectedStateOfVisible();
-			tableViewer.refresh();
+			updateChangedRows();
 			if (fastSelectAction != null) fastSelectAction.accept(contentProvider().getSelectedEntries(), inputCommand);
 		}
 	}
 
+	/*
+	 * Clear only the rows whose state changed.  The virtual table requests data again for cleared rows
+	 * when they are painted, so rows outside the view port cost nothing.
+	 */
+	private void updateChangedRows() {
+		final int itemCount = table.getItemCount();
+		final KaviListColumns<T> kaviListColumns = contentProvider().getKaviListColumns();
+		contentProvider().drainRowChanges(rowIndex -> {
+			kaviListColumns.invalidatePrefetchedRow(rowIndex);
+			if (rowIndex < itemCount) table.clear(rowIndex);
+		}, () -> {
+			kaviListColumns.invalidatePrefetched();
+			table.clearAll();
+		});
+	}
+
 	private void showOrHideFastSelectColumn(final InputCommand inputCommand, List<ColumnOptions<T>> columnOptions) {
 		final boolean isFastSelectShowing = columnOptions.get(0).width() > 0;
 		// show fast select index if we are typing a fast select expression
@@ -190,6 +312,7 @@ public class KaviList<T> {
 
 	public void initialize(Composite composite, int defaultOrientation) {
 		display = composite.getDisplay();
+		uiUpdates = new UiUpdateScheduler<>(display, UiUpdate.class);
 		composite.addDisposeListener((DisposeListener) this::dispose);
 		
 		tableViewer = new TableViewer(composite, SWT.MULTI | SWT.FULL_SELECTION | SWT.VIRTUAL | SWT.NO_BACKGROUND | SWT.DOUBLE_BUFFERED );
@@ -210,8 +333,10 @@ public class KaviList<T> {
 			handleSelection();
 		});
 		composite.getShell().addListener(SWT.Resize, event ->  autoAdjustColumnWidths(composite));
+		if (table.getVerticalBar() != null) table.getVerticalBar().addListener(SWT.Selection, event -> requestPrefetch());
 		
-		subjectFilter.debounce(0, TimeUnit.MILLISECONDS).subscribe( filter -> handleRefresh(filter));
+		subscriptions.add(subjectFilter.debounce(0, TimeUnit.MILLISECONDS).subscribe( filter -> handleRefresh(filter)));
+		subscriptions.add(subjectPrefetch.debounce(0, TimeUnit.MILLISECONDS, prefetchScheduler).subscribe( request -> prefetchRows()));
 	}
 
 	private void autoAdjustColumnWidths(Composite composite) {
@@ -295,17 +420,14 @@ public class KaviList<T> {
 					close();
 					break;
 				case SWT.TAB:
+					// redraw is suspended by the provider change until the next ui update pass
 					nextContentMode();
-					table.getParent().getShell().setRedraw(false);
 					requestRefresh(( (Text) e.widget).getText());
-					display.asyncExec(() -> table.getParent().getShell().setRedraw(true));
 					break;
 				case ';':
 					e.doit = false;
 					toggleInternalCommands();
-					table.getParent().getShell().setRedraw(false);
 					requestRefresh(( (Text) e.widget).getText());
-					display.asyncExec(() -> table.getParent().getShell().setRedraw(true));					
 					break;
 				}
 			}
@@ -331,8 +453,9 @@ public class KaviList<T> {
 		if (cursorIndex >= 0) {
 			TableItem cursoredTableItem = tableViewer.getTable().getItem(cursorIndex);
 			tableViewer.getTable().showItem(cursoredTableItem);
+			requestPrefetch();
 		}
-		tableViewer.refresh();
+		updateChangedRows();
 		composite.getShell().setRedraw(true);
 	}
 	private void moveRowCursorDown() {
@@ -343,8 +466,9 @@ public class KaviList<T> {
 		if (cursorIndex >= 0) {
 			TableItem cursoredTableItem = tableViewer.getTable().getItem(cursorIndex);
 			tableViewer.getTable().showItem(cursoredTableItem);
+			requestPrefetch();
 		}
-		tableViewer.refresh();
+		updateChangedRows();
 		composite.getShell().setRedraw(true);
 	}
 	
@@ -365,6 +489,27 @@ public class KaviList<T> {
 		}
 	}
 	
+	/*
+	 * Prefetched cells of all providers no longer reflect the content, such as after the history changed
+	 */
+	public void invalidatePrefetched() {
+		for (InternalContentProviderProxy<?> contentProvider : listContentProviders.values()) {
+			contentProvider.getKaviListColumns().invalidatePrefetched();
+		}
+	}
+	
+	public void markContentStale() {
+		for (InternalContentProviderProxy<?> contentProvider : listContentProviders.values()) {
+			contentProvider.markContentStale();
+		}
+	}
+	
+	public void resetSelections() {
+		for (InternalContentProviderProxy<?> contentProvider : listContentProviders.values()) {
+			contentProvider.resetSelections();
+		}
+	}
+	
 	public String currentContentMode() {
 		return currentContentProvider;
 	}
@@ -389,7 +534,7 @@ public class KaviList<T> {
 		previousProvider = contentProvider();
 		currentContentProvider = mode;
 		Composite composite = table.getParent();
-		composite.getShell().setRedraw(false);
+		suspendRedraw();
 		if (contentProvider().installProvider(previousProvider)) {
 			if (contentProvider().previousInputCommand() != null)
 				rapidInputPickList.setFilterInputText(contentProvider().previousInputCommand().filterText);
@@ -397,11 +542,33 @@ public class KaviList<T> {
 				rapidInputPickList.setFilterInputText("");
 		}
 		autoAdjustColumnWidths(composite);
-		// do this async to prevent timing related flicker
-		display.asyncExec(() -> composite.getShell().setRedraw(true));
+		// do this in the next ui update pass to prevent timing related flicker
+		uiUpdates.schedule(UiUpdate.REDRAW, this::resumeRedraw);
 		return contentProvider();
 	}
 	
+	/*
+	 * Shell redraw suspension does not nest here.  Several provider changes within a frame are resumed by a single update.
+	 */
+	private void suspendRedraw() {
+		if (redrawSuspended) return;
+		table.getParent().getShell().setRedraw(false);
+		redrawSuspended = true;
+	}
+	
+	private void resumeRedraw() {
+		if (!redrawSuspended || table.isDisposed()) return;
+		table.getParent().getShell().setRedraw(true);
+		redrawSuspended = false;
+	}
+	
+	/*
+	 * Diagnostics of the coalesced ui updates, such as queue depth and dropped updates
+	 */
+	public UiUpdateScheduler<?> getUiUpdateScheduler() {
+		return uiUpdates;
+	}
+	
 	private boolean providerExists(String mode) {
 		if (listContentProviders.containsKey(mode)) return true;
 		else {
@@ -415,6 +582,8 @@ public class KaviList<T> {
 	}
 	
 	private void dispose(DisposeEvent e) {
+		subscriptions.dispose();
+		prefetchExecutor.shutdownNow();
 		if (resourceManager != null) {
 			resourceManager.dispose();
 			resourceManager = null;
@@ -430,6 +599,7 @@ public class KaviList<T> {
 		composite.getShell().setRedraw(false);
 		tableViewer.getTable().setTopIndex(topIndex);
 		composite.getShell().setRedraw(true);
+		requestPrefetch();
 	}
 
 	private void scrollPageUp() {
@@ -442,6 +612,7 @@ public class KaviList<T> {
 		composite.getShell().setRedraw(false);
 		tableViewer.getTable().setTopIndex(topIndex);
 		composite.getShell().setRedraw(true);
+		requestPrefetch();
 	}
 
 
@@ -7,6 +7,7 @@ import java.util.function.Function;
 
 import org.eclipse.jface.resource.FontDescriptor;
 import org.eclipse.jface.resource.JFaceResources;
+import org.eclipse.jface.viewers.CellLabelProvider;
 import org.eclipse.jface.viewers.StyledCellLabelProvider;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TableViewerColumn;
@@ -22,22 +23,28 @@ import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.TableColumn;
-import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.ui.themes.ColorUtil;
 
 import dakara.eclipse.plugin.kavi.picklist.InternalContentProviderProxy.RowState;
+import dakara.eclipse.plugin.kavi.picklist.PrefetchedCells.Cell;
 import dakara.eclipse.plugin.stringscore.RankedItem;
-import dakara.eclipse.plugin.stringscore.StringScore.Score;
 /*
  * TODO - move a colors to a common location.  prior step to allowing user customizations.
  */
 public class KaviListColumns<T> {
+	private static final StyleRange[] NO_HIGHLIGHT_RUNS = new StyleRange[0];
 	private final List<ColumnOptions<T>> columnOptions = new ArrayList<>();
 	private final TableViewer tableViewer;
 	private final Function<RankedItem<T>, Integer> rowStateResolver;
-	public KaviListColumns(TableViewer tableViewer, Function<RankedItem<T>, Integer> rowStateResolver) {
+	private final Function<RankedItem<T>, Integer> rowIndexResolver;
+	// resolved on the UI thread, read by the prefetch thread
+	private volatile Color highlightColor;
+	private Color markerColor;
+	private boolean ownerDraw = false;
+	public KaviListColumns(TableViewer tableViewer, Function<RankedItem<T>, Integer> rowStateResolver, Function<RankedItem<T>, Integer> rowIndexResolver) {
 		this.tableViewer = tableViewer;
 		this.rowStateResolver = rowStateResolver;
+		this.rowIndexResolver = rowIndexResolver;
 	}
 	
 	public ColumnOptions<T> addColumn(String columnId, Function<T, String> columnContentFn) {
@@ -47,28 +54,32 @@ public class KaviListColumns<T> {
 	public ColumnOptions<T> addColumn(String columnId, BiFunction<T, Integer, String> columnContentFn) {
 		final ColumnOptions<T> options = new ColumnOptions<T>(this, columnId, columnContentFn, columnOptions.size());
 		StyledCellLabelProvider labelProvider = new StyledCellLabelProvider(StyledCellLabelProvider.COLORS_ON_SELECTION) {
+			@SuppressWarnings("unchecked")
 			@Override
         	public void update(ViewerCell cell) {
-        		// TODO reuse and manage SWT resources
-        		final RankedItem<T> rankedItem = applyCellDefaultStyles(options, cell);
-        		resolveCellTextValue(columnContentFn, cell, rankedItem);
-        		if (options.isSearchable())
-        			applyCellScoreMatchStyles(cell, rankedItem);
+        		final RankedItem<T> rankedItem = (RankedItem<T>) cell.getElement();
+        		cell.setForeground(foreground(options));
+        		cell.setBackground(background(options, rankedItem));
+        		cell.setFont(font(options, cell.getFont(), cell.getControl().getDisplay()));
+        		cell.setText(cellText(options, rankedItem));
+        		final StyleRange[] highlightRuns = highlightRuns(options, rankedItem);
+        		if (highlightRuns != null)
+        			cell.setStyleRanges(highlightRuns);
         		super.update(cell);
         	}
+			@SuppressWarnings("unchecked")
 			@Override
 			protected void paint(Event event, Object element) {
-				Function<T, Boolean> markerIndicatorProvider = options.getMarkerIndicatorProvider();
 				// TODO - make this more generic so we can have different types of markers
 				// - possibly allow the provider to draw its own marker
 				// - consider passing rankedItem.  We could then draw ranking strength markers
-				if (markerIndicatorProvider != null && markerIndicatorProvider.apply(((RankedItem<T>) element).dataItem)) {
+				if (hasMarker(options, (RankedItem<T>) element)) {
 					GC gc = event.gc;
 					ViewerCell cell = getViewer().getCell(new Point(event.x, event.y));
 					Rectangle bounds = cell.getBounds();
 					
-					gc.setForeground(fromRegistry(new RGB(242, 215, 135)));
-					gc.setBackground(fromRegistry(new RGB(242, 215, 135)));
+					gc.setForeground(markerColor());
+					gc.setBackground(markerColor());
 					gc.fillRectangle(bounds.x, bounds.y + 2, 3, bounds.height - 4);
 				}
 				super.paint(event, element);
@@ -92,11 +103,21 @@ public class KaviListColumns<T> {
 	
 	public KaviListColumns<T> installColumnsIntoTable() {
 		for (ColumnOptions<T> columnOption : columnOptions) {
-			columnOption.setColumn(createTableViewerColumn(tableViewer, columnOption.getLabelProvider()).getColumn());
+			CellLabelProvider labelProvider = ownerDraw ? new OwnerDrawColumnRenderer<T>(this, columnOption) : columnOption.getLabelProvider();
+			columnOption.setColumn(createTableViewerColumn(tableViewer, labelProvider).getColumn());
 		}
 		return this;
 	}
 	
+	/*
+	 * Paint cells directly from cached render data instead of through the StyledCellLabelProvider.
+	 * Takes effect the next time the columns are installed into the table.
+	 */
+	public KaviListColumns<T> ownerDraw(boolean ownerDraw) {
+		this.ownerDraw = ownerDraw;
+		return this;
+	}
+	
 	public int totalColumnWidth() {
 		int width = 0;
 		for(ColumnOptions<T> options : columnOptions) {
@@ -114,37 +135,46 @@ public class KaviListColumns<T> {
 		return width;
 	}
 	
-    private TableViewerColumn createTableViewerColumn(TableViewer tableViewer, StyledCellLabelProvider labelProvider) {
+    private TableViewerColumn createTableViewerColumn(TableViewer tableViewer, CellLabelProvider labelProvider) {
         final TableViewerColumn viewerColumn = new TableViewerColumn(tableViewer, SWT.NONE | SWT.RESIZE);
         viewerColumn.setLabelProvider(labelProvider);
         return viewerColumn;
     }	
     
 	
-	@SuppressWarnings("unchecked")
-	private RankedItem<T> applyCellDefaultStyles(final ColumnOptions<T> options, ViewerCell cell) {
-		final RankedItem<T> rankedItem = (RankedItem<T>) cell.getElement();
-		cell.setForeground(fromRegistry(options.getFontColor()));
-		int rowState = rowStateResolver.apply(rankedItem);
-		
-	    if ((rowState & RowState.SELECTED.value) != 0 && options.isEnableBackgroundSelection()) {
-			cell.setBackground(fromRegistry(new RGB(225,226,206)));
-		} else {
-			cell.setBackground(fromRegistry(options.getBackgroundColor()));
+	Color foreground(final ColumnOptions<T> options) {
+		if (options.getForeground() == null) options.setForeground(fromRegistry(options.getFontColor()));
+		return options.getForeground();
+	}
+	
+	Color background(final ColumnOptions<T> options, final RankedItem<T> rankedItem) {
+		if (options.getRowStateBackgrounds() == null) options.setRowStateBackgrounds(createRowStateBackgrounds(options));
+		return options.getRowStateBackgrounds()[rowStateResolver.apply(rankedItem)];
+	}
+
+	/*
+	 * Background per row state, resolved once per column instead of blending and looking up the registry for every cell
+	 */
+	private Color[] createRowStateBackgrounds(final ColumnOptions<T> options) {
+		final Color[] backgrounds = new Color[(RowState.SELECTED.value | RowState.CURSOR.value) + 1];
+		for (int rowState = 0; rowState < backgrounds.length; rowState++) {
+			RGB background = options.getBackgroundColor();
+			if ((rowState & RowState.SELECTED.value) != 0 && options.isEnableBackgroundSelection()) {
+				background = new RGB(225,226,206);
+			}
+			if ((rowState & RowState.CURSOR.value) != 0 && options.isEnableBackgroundSelection()) {
+				background = ColorUtil.blend(background, new RGB(200,200,200));
+			}
+			backgrounds[rowState] = fromRegistry(background);
 		}
-	    if ((rowState & RowState.CURSOR.value) != 0 && options.isEnableBackgroundSelection()) {
-			cell.setBackground(fromRegistry(ColorUtil.blend(cell.getBackground().getRGB(), new RGB(200,200,200))));
-	    }
-		Font font = createColumnFont(options, cell);
-		cell.setFont(font);
-		return rankedItem;
+		return backgrounds;
 	}
 
-	private Font createColumnFont(final ColumnOptions<T> options, ViewerCell cell) {
+	Font font(final ColumnOptions<T> options, Font baseFont, Display display) {
 		Font font = options.getFont();
 		if (font == null) {
-			FontDescriptor fontDescriptor = FontDescriptor.createFrom(cell.getFont()).setStyle(options.getFontStyle());
-			font = fontDescriptor.createFont(cell.getControl().getDisplay());
+			FontDescriptor fontDescriptor = FontDescriptor.createFrom(baseFont).setStyle(options.getFontStyle());
+			font = fontDescriptor.createFont(display);
 			options.setFont(font);
 		}
 		return font;
@@ -160,31 +190,84 @@ public class KaviListColumns<T> {
 		return color;
 	}
 	
-	private void resolveCellTextValue(BiFunction<T, Integer, String> columnContentFn, ViewerCell cell, final RankedItem<T> rankedItem) {
-		cell.setText(columnContentFn.apply(rankedItem.dataItem, tableViewer.getTable().indexOf((TableItem) cell.getItem())));
-	}	
-	private void applyCellScoreMatchStyles(ViewerCell cell, final RankedItem<T> rankedItem) {
-		Score score = rankedItem.getColumnScore(getColumnIdFromColumnIndex(cell.getColumnIndex()));
-		if (score != null) {
-			// TODO - investigate performance options
-			// this is currently the bottle neck in UI performance.  Creating and setting styles.
-			cell.setStyleRanges(createStyles(score.matches));
+	String cellText(final ColumnOptions<T> options, final RankedItem<T> rankedItem) {
+		// Table.indexOf(TableItem) is a linear scan of the items, use the row index tracked by the content provider instead
+		final int rowIndex = rowIndexResolver.apply(rankedItem);
+		final Cell<T> prefetched = options.getPrefetchedCells().get(rankedItem, rowIndex);
+		if (prefetched != null) return prefetched.text;
+		return options.getColumnContentFn().apply(rankedItem.dataItem, rowIndex);
+	}
+	
+	/*
+	 * Returns null when the column has no matches to highlight
+	 */
+	StyleRange[] highlightRuns(final ColumnOptions<T> options, final RankedItem<T> rankedItem) {
+		if (!options.isSearchable()) return null;
+		final Cell<T> prefetched = options.getPrefetchedCells().get(rankedItem, rowIndexResolver.apply(rankedItem));
+		if (prefetched != null && prefetched.highlightRuns != null) return prefetched.highlightRuns.length == 0 ? null : prefetched.highlightRuns;
+		final int fieldOrdinal = options.fieldOrdinal(rankedItem);
+		if (fieldOrdinal == -1) return null;
+		if (highlightColor == null) highlightColor = fromRegistry(new RGB(150,190,255));
+		return options.getHighlightRuns().styleRanges(rankedItem, fieldOrdinal, highlightColor);
+	}
+	
+	boolean hasMarker(final ColumnOptions<T> options, final RankedItem<T> rankedItem) {
+		Function<T, Boolean> markerIndicatorProvider = options.getMarkerIndicatorProvider();
+		if (markerIndicatorProvider == null) return false;
+		final Cell<T> prefetched = options.getPrefetchedCells().get(rankedItem, rowIndexResolver.apply(rankedItem));
+		if (prefetched != null) return prefetched.marker;
+		return markerIndicatorProvider.apply(rankedItem.dataItem);
+	}
+	
+	/*
+	 * Prepares the cells of rows fromRow until toRow, exclusive, so the label providers only look them up.
+	 * Runs on a background thread.  rows must be the published table entries so list positions are row indexes.
+	 */
+	public KaviListColumns<T> prefetch(List<RankedItem<T>> rows, int fromRow, int toRow) {
+		final Color highlightColor = this.highlightColor;
+		final int endRow = Math.min(toRow, rows.size());
+		for (ColumnOptions<T> options : columnOptions) {
+			final PrefetchedCells<T> prefetchedCells = options.getPrefetchedCells().makeRoom(fromRow, toRow);
+			final Function<T, Boolean> markerIndicatorProvider = options.getMarkerIndicatorProvider();
+			for (int rowIndex = Math.max(0, fromRow); rowIndex < endRow; rowIndex++) {
+				final RankedItem<T> rankedItem = rows.get(rowIndex);
+				if (prefetchedCells.contains(rankedItem, rowIndex)) continue;
+				
+				StyleRange[] highlightRuns = null;
+				if (!options.isSearchable()) {
+					highlightRuns = NO_HIGHLIGHT_RUNS;
+				} else if (highlightColor != null) {
+					final int fieldOrdinal = rankedItem.fieldOrdinal(options.columnId);
+					highlightRuns = fieldOrdinal == -1 ? NO_HIGHLIGHT_RUNS : HighlightRunCache.createRuns(rankedItem, fieldOrdinal, highlightColor);
+				}
+				prefetchedCells.put(rankedItem, rowIndex,
+									options.getColumnContentFn().apply(rankedItem.dataItem, rowIndex),
+									highlightRuns,
+									markerIndicatorProvider != null && markerIndicatorProvider.apply(rankedItem.dataItem));
+			}
 		}
+		return this;
 	}
 	
-	private String getColumnIdFromColumnIndex(int columnIndex) {
-		// TODO consider: likely there will never be lots of columns.  Looping is probably optimal here vs a lookup table.
+	/*
+	 * Prefetched cells of the row no longer reflect its state
+	 */
+	public KaviListColumns<T> invalidatePrefetchedRow(int rowIndex) {
 		for (ColumnOptions<T> options : columnOptions) {
-			if (options.columnIndex == columnIndex) return options.columnId;
+			options.getPrefetchedCells().invalidateRow(rowIndex);
 		}
-		throw new IllegalStateException("No matching column index");
+		return this;
 	}
 	
-    private StyleRange[] createStyles(List<Integer> matches) {
-    	List<StyleRange> styles = new ArrayList<StyleRange>();
-    	for (Integer match : matches) {
-    		styles.add(new StyleRange(match, 1, null, fromRegistry(new RGB(150,190,255))));
-    	}
-    	return styles.toArray(new StyleRange[]{});
-    }
+	public KaviListColumns<T> invalidatePrefetched() {
+		for (ColumnOptions<T> options : columnOptions) {
+			options.getPrefetchedCells().invalidate();
+		}
+		return this;
+	}
+	
+	Color markerColor() {
+		if (markerColor == null) markerColor = fromRegistry(new RGB(242, 215, 135));
+		return markerColor;
+	}
 }
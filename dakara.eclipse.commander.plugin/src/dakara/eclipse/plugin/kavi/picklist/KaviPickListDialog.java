@@ -1,8 +1,9 @@
 package dakara.eclipse.plugin.kavi.picklist;
 
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 import org.eclipse.jface.dialogs.PopupDialog;
 import org.eclipse.jface.layout.GridDataFactory;
@@ -78,7 +79,12 @@ public class KaviPickListDialog<T> extends PopupDialog {
 	}
 
 	public void show() {
-		listFilterInputControl.setText("");
+		// a new invocation lists new content, selections of the previous one no longer apply
+		kaviList.resetSelections();
+		displayInfo.message = null;
+		// an unchanged filter does not notify the modify listener, refresh so the list reflects the current state
+		if (listFilterInputControl.getText().isEmpty()) kaviList.requestRefresh("");
+		else listFilterInputControl.setText("");
 		getShell().setVisible(true);
 		listFilterInputControl.setFocus();
 	}
@@ -96,7 +102,18 @@ public class KaviPickListDialog<T> extends PopupDialog {
 	}
 	
 	private void updateInfoDisplay() {
-		setInfoText("mode: " + displayInfo.mode + " / items: " + displayInfo.filteredCount + " / selected: " + displayInfo.selectedCount);
+		String infoText = "mode: " + displayInfo.mode + " / items: " + displayInfo.filteredCount + " / selected: " + displayInfo.selectedCount;
+		if (displayInfo.message != null) infoText += " / " + displayInfo.message;
+		setInfoText(infoText);
+	}
+	
+	/*
+	 * Shown along with the list status until the dialog is shown again
+	 */
+	public void setStatusMessage(String message) {
+		if (getShell() == null || getShell().isDisposed()) return;
+		displayInfo.message = message;
+		updateInfoDisplay();
 	}
 	
 	public void setBounds(int width, int height) {
@@ -107,6 +124,14 @@ public class KaviPickListDialog<T> extends PopupDialog {
 		getShell().setBounds(getConstrainedShellBounds(new Rectangle(location.x, location.y, size.x + 25, size.y)));
 	}
 	
+	public void setOwnerDraw(boolean ownerDraw) {
+		kaviList.setOwnerDraw(ownerDraw);
+	}
+	
+	public void setViewPortAction(IntConsumer viewPortAction) {
+		kaviList.setViewPortAction(viewPortAction);
+	}
+	
 	public <U> InternalContentProviderProxy<U> setListContentProvider(String name, Function<InputState, List<RankedItem<U>>> listContentProvider) {
 		return kaviList.setListContentProvider(name, listContentProvider);
 	}
@@ -115,7 +140,7 @@ public class KaviPickListDialog<T> extends PopupDialog {
 		return kaviList.setCurrentProvider(mode);
 	}
 	
-	private void handleFastSelect(Set<RankedItem<T>> selectedItems, InputCommand command) {
+	private void handleFastSelect(Collection<RankedItem<T>> selectedItems, InputCommand command) {
 		String currentText = listFilterInputControl.getText();
 		String newText = currentText.substring(0, currentText.lastIndexOf('/') + 1);
 		setFilterInputText(newText);
@@ -123,6 +148,16 @@ public class KaviPickListDialog<T> extends PopupDialog {
 		updateInfoDisplay();
 	}
 	
+	/*
+	 * Filter the list again with the current input, such as after the list content changed
+	 */
+	public void refreshList() {
+		if (listFilterInputControl == null || listFilterInputControl.isDisposed()) return;
+		kaviList.invalidatePrefetched();
+		kaviList.markContentStale();
+		kaviList.requestRefresh(listFilterInputControl.getText());
+	}
+	
 	public void setFilterInputText(String newText) {
 		listFilterInputControl.setText(newText);
 		listFilterInputControl.setSelection(newText.length());
@@ -137,5 +172,6 @@ public class KaviPickListDialog<T> extends PopupDialog {
 		public int itemCount;
 		public int filteredCount;
 		public int selectedCount;
+		public String message;
 	}
 }
@@ -0,0 +1,128 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import org.eclipse.jface.viewers.OwnerDrawLabelProvider;
+import org.eclipse.jface.viewers.ViewerCell;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Font;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.TableItem;
+
+import dakara.eclipse.plugin.stringscore.RankedItem;
+
+/*
+ * Owner draw rendering of a single Kavi list column, an alternative to the StyledCellLabelProvider.
+ * - update is called when the virtual table materializes a row.  It resolves text, colors, highlight runs
+ *   and the marker once and keeps them with the table item.
+ * - erase and paint only draw from that render data, there is no ViewerCell, TextLayout or color lookup per paint.
+ * - text extents are measured on the first paint of a row and kept with the render data, so repaints while paging measure nothing.
+ * Rows are updated again whenever they are cleared, such as on selection or cursor changes.
+ */
+class OwnerDrawColumnRenderer<T> extends OwnerDrawLabelProvider {
+	private static final int TEXT_MARGIN = 3;
+	private final KaviListColumns<T> kaviListColumns;
+	private final ColumnOptions<T> options;
+	private final String renderDataKey;
+
+	OwnerDrawColumnRenderer(KaviListColumns<T> kaviListColumns, ColumnOptions<T> options) {
+		this.kaviListColumns = kaviListColumns;
+		this.options = options;
+		this.renderDataKey = "kavi.render." + options.columnIndex;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void update(ViewerCell cell) {
+		final RankedItem<T> rankedItem = (RankedItem<T>) cell.getElement();
+		final RenderData renderData = new RenderData(kaviListColumns.cellText(options, rankedItem),
+													 kaviListColumns.font(options, cell.getControl().getFont(), cell.getControl().getDisplay()),
+													 kaviListColumns.foreground(options),
+													 kaviListColumns.background(options, rankedItem),
+													 kaviListColumns.highlightRuns(options, rankedItem),
+													 kaviListColumns.hasMarker(options, rankedItem));
+		cell.getItem().setData(renderDataKey, renderData);
+		// redraws the cell
+		super.update(cell);
+	}
+
+	@Override
+	protected void measure(Event event, Object element) {
+		// keep the default row height of the table
+	}
+
+	@Override
+	protected void erase(Event event, Object element) {
+		final RenderData renderData = renderData(event);
+		if (renderData == null) return;
+		event.gc.setBackground(renderData.background);
+		event.gc.fillRectangle(event.x, event.y, event.width, event.height);
+		// selection and hot tracking are shown by the row state background
+		event.detail &= ~(SWT.BACKGROUND | SWT.FOREGROUND | SWT.SELECTED | SWT.HOT);
+	}
+
+	@Override
+	protected void paint(Event event, Object element) {
+		final RenderData renderData = renderData(event);
+		if (renderData == null) return;
+		final GC gc = event.gc;
+		gc.setFont(renderData.font);
+		if (renderData.runExtents == null) renderData.measure(gc);
+
+		final Rectangle bounds = ((TableItem) event.item).getBounds(event.index);
+		final int x = options.getColumn().getAlignment() == SWT.RIGHT ? bounds.x + bounds.width - renderData.textExtent.x - TEXT_MARGIN : bounds.x + TEXT_MARGIN;
+		final int y = bounds.y + (bounds.height - renderData.textExtent.y) / 2;
+		for (int runIndex = 0; runIndex < renderData.highlightRuns.length; runIndex++) {
+			gc.setBackground(renderData.highlightRuns[runIndex].background);
+			gc.fillRectangle(x + renderData.runExtents[runIndex * 2], y, renderData.runExtents[runIndex * 2 + 1], renderData.textExtent.y);
+		}
+		gc.setForeground(renderData.foreground);
+		gc.drawText(renderData.text, x, y, true);
+
+		if (renderData.marker) {
+			gc.setBackground(kaviListColumns.markerColor());
+			gc.fillRectangle(bounds.x, bounds.y + 2, 3, bounds.height - 4);
+		}
+	}
+
+	private RenderData renderData(Event event) {
+		return (RenderData) event.item.getData(renderDataKey);
+	}
+
+	private static final class RenderData {
+		private static final StyleRange[] NO_RUNS = new StyleRange[0];
+		private final String text;
+		private final Font font;
+		private final Color foreground;
+		private final Color background;
+		private final StyleRange[] highlightRuns;
+		private final boolean marker;
+		private Point textExtent;
+		// x offset and width of each highlight run
+		private int[] runExtents;
+
+		private RenderData(String text, Font font, Color foreground, Color background, StyleRange[] highlightRuns, boolean marker) {
+			this.text = text == null ? "" : text;
+			this.font = font;
+			this.foreground = foreground;
+			this.background = background;
+			this.highlightRuns = highlightRuns == null ? NO_RUNS : highlightRuns;
+			this.marker = marker;
+		}
+
+		private void measure(GC gc) {
+			textExtent = gc.textExtent(text);
+			final int[] runExtents = new int[highlightRuns.length * 2];
+			for (int runIndex = 0; runIndex < highlightRuns.length; runIndex++) {
+				final int start = Math.min(highlightRuns[runIndex].start, text.length());
+				final int end = Math.min(start + highlightRuns[runIndex].length, text.length());
+				runExtents[runIndex * 2] = gc.textExtent(text.substring(0, start)).x;
+				runExtents[runIndex * 2 + 1] = gc.textExtent(text.substring(start, end)).x;
+			}
+			this.runExtents = runExtents;
+		}
+	}
+}
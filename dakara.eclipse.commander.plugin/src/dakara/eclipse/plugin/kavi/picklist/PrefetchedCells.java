@@ -0,0 +1,74 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.swt.custom.StyleRange;
+
+import dakara.eclipse.plugin.stringscore.RankedItem;
+
+/*
+ * Cell values of a single column prepared on a background thread ahead of the virtual table asking for the rows.
+ * - a cell is only used for the exact ranked item and row it was prepared for, a newer ranking or a moved row prepares again
+ * - written by the single prefetch thread and read by the UI thread
+ * - cells are invalidated when the state behind them changes, such as history or marker changes of a row
+ * - bounded, once full the cells outside of the rows being prefetched are dropped, so the view port is never wiped
+ */
+public class PrefetchedCells<T> {
+	private static final int MAX_CELLS = 1024;
+	private final Map<T, Cell<T>> cellsByItem = new ConcurrentHashMap<>();
+
+	public PrefetchedCells<T> put(RankedItem<T> rankedItem, int rowIndex, String text, StyleRange[] highlightRuns, boolean marker) {
+		cellsByItem.put(rankedItem.dataItem, new Cell<>(rankedItem, rowIndex, text, highlightRuns, marker));
+		return this;
+	}
+
+	/*
+	 * Returns null when the cell was not prefetched for this ranked item and row
+	 */
+	public Cell<T> get(RankedItem<T> rankedItem, int rowIndex) {
+		final Cell<T> cell = cellsByItem.get(rankedItem.dataItem);
+		if (cell == null || cell.rankedItem != rankedItem || cell.rowIndex != rowIndex) return null;
+		return cell;
+	}
+
+	/*
+	 * Drop the cells outside of rows fromRow until toRow when full.  Called by the prefetch before it adds the rows.
+	 */
+	public PrefetchedCells<T> makeRoom(int fromRow, int toRow) {
+		if (cellsByItem.size() < MAX_CELLS) return this;
+		cellsByItem.values().removeIf(cell -> cell.rowIndex < fromRow || cell.rowIndex >= toRow);
+		return this;
+	}
+
+	public PrefetchedCells<T> invalidateRow(int rowIndex) {
+		cellsByItem.values().removeIf(cell -> cell.rowIndex == rowIndex);
+		return this;
+	}
+
+	public PrefetchedCells<T> invalidate() {
+		cellsByItem.clear();
+		return this;
+	}
+
+	public boolean contains(RankedItem<T> rankedItem, int rowIndex) {
+		return get(rankedItem, rowIndex) != null;
+	}
+
+	public static final class Cell<T> {
+		private final RankedItem<T> rankedItem;
+		private final int rowIndex;
+		public final String text;
+		// empty when there is nothing to highlight, null when not prepared such as before the highlight color is resolved
+		public final StyleRange[] highlightRuns;
+		public final boolean marker;
+
+		private Cell(RankedItem<T> rankedItem, int rowIndex, String text, StyleRange[] highlightRuns, boolean marker) {
+			this.rankedItem = rankedItem;
+			this.rowIndex = rowIndex;
+			this.text = text;
+			this.highlightRuns = highlightRuns;
+			this.marker = marker;
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.List;
+
+import dakara.eclipse.plugin.stringscore.RankedItem;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/*
+ * Compares a newly ranked list with the one currently shown so only rows that render differently need to be replaced.
+ * Rows past the end of the shorter list are not reported, they are handled by adjusting the table item count.
+ */
+public class RankedListDiff {
+	public static <T> int[] changedRows(List<RankedItem<T>> previous, List<RankedItem<T>> current) {
+		final int commonRowCount = Math.min(previous.size(), current.size());
+		IntArrayList changedRows = new IntArrayList();
+		for (int rowIndex = 0; rowIndex < commonRowCount; rowIndex++) {
+			if (!current.get(rowIndex).sameRanking(previous.get(rowIndex))) changedRows.add(rowIndex);
+		}
+		return changedRows.toIntArray();
+	}
+}
@@ -0,0 +1,196 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import dakara.eclipse.plugin.stringscore.RankedItem;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/*
+ * Selection state keyed by stable item ordinals.
+ * - ordinals are only assigned when selecting, publishing rows does not touch them
+ * - an item keeps its ordinal while anything is selected, they are released once the selection is empty again
+ * - selected and visible are bitsets over those ordinals, so bulk operations on the visible rows are word wise
+ * - selections survive filter changes because ordinals do not depend on row position
+ * - item to row lookups index the published rows incrementally, only as far as the rows looked up
+ */
+public class SelectionModel<U> {
+	private final Object2IntOpenHashMap<U> ordinalByItem = new Object2IntOpenHashMap<>();
+	private final List<RankedItem<U>> itemByOrdinal = new ArrayList<>();
+	private final BitSet selected = new BitSet();
+	private List<RankedItem<U>> rows = Collections.emptyList();
+	// ordinals of the published rows, null until a bulk selection operation needs them
+	private BitSet visible = null;
+	private int[] rowOrdinals = null;
+	// rows indexed so far by rowOf, null until the first lookup
+	private Object2IntOpenHashMap<U> rowByItem = null;
+	private int indexedRowCount = 0;
+
+	public SelectionModel() {
+		ordinalByItem.defaultReturnValue(-1);
+	}
+
+	/*
+	 * Make the rows the currently visible rows.  Constant time, the rows are indexed when they are looked up.
+	 */
+	public synchronized SelectionModel<U> publish(List<RankedItem<U>> rows) {
+		if (selected.isEmpty()) releaseOrdinals();
+		this.rows = rows;
+		this.visible = null;
+		this.rowOrdinals = null;
+		this.rowByItem = null;
+		this.indexedRowCount = 0;
+		return this;
+	}
+
+	/*
+	 * Forget all selections and ordinals, for when the content behind the rows is replaced
+	 */
+	public synchronized SelectionModel<U> reset() {
+		selected.clear();
+		return publish(Collections.emptyList());
+	}
+
+	synchronized int ordinalCount() {
+		return itemByOrdinal.size();
+	}
+
+	private void releaseOrdinals() {
+		if (itemByOrdinal.isEmpty()) return;
+		ordinalByItem.clear();
+		ordinalByItem.trim();
+		itemByOrdinal.clear();
+	}
+
+	private void indexVisible() {
+		if (rowOrdinals != null) return;
+		final int[] rowOrdinals = new int[rows.size()];
+		for (int rowIndex = 0; rowIndex < rowOrdinals.length; rowIndex++) {
+			rowOrdinals[rowIndex] = assignOrdinal(rows.get(rowIndex));
+		}
+		final BitSet visible = new BitSet(itemByOrdinal.size());
+		for (int ordinal : rowOrdinals) {
+			visible.set(ordinal);
+		}
+		this.visible = visible;
+		this.rowOrdinals = rowOrdinals;
+	}
+
+	private int assignOrdinal(RankedItem<U> rankedItem) {
+		int ordinal = ordinalByItem.getInt(rankedItem.dataItem);
+		if (ordinal == -1) {
+			ordinal = itemByOrdinal.size();
+			ordinalByItem.put(rankedItem.dataItem, ordinal);
+			itemByOrdinal.add(rankedItem);
+		} else {
+			// keep the latest ranking so selected items reflect the current scores
+			itemByOrdinal.set(ordinal, rankedItem);
+		}
+		return ordinal;
+	}
+
+	public synchronized int ordinalOfRow(int rowIndex) {
+		indexVisible();
+		return rowOrdinals[rowIndex];
+	}
+
+	/*
+	 * Returns -1 when the item is not visible
+	 */
+	public synchronized int rowOf(RankedItem<U> rankedItem) {
+		if (rowByItem == null) {
+			rowByItem = new Object2IntOpenHashMap<>();
+			rowByItem.defaultReturnValue(-1);
+		}
+		final int row = rowByItem.getInt(rankedItem.dataItem);
+		if (row != -1) return row;
+		while (indexedRowCount < rows.size()) {
+			final U item = rows.get(indexedRowCount).dataItem;
+			rowByItem.putIfAbsent(item, indexedRowCount++);
+			if (item.equals(rankedItem.dataItem)) return rowByItem.getInt(item);
+		}
+		return -1;
+	}
+
+	public synchronized int ordinalOf(RankedItem<U> rankedItem) {
+		return ordinalByItem.getInt(rankedItem.dataItem);
+	}
+
+	public synchronized boolean isSelected(RankedItem<U> rankedItem) {
+		if (selected.isEmpty()) return false;
+		final int ordinal = ordinalOf(rankedItem);
+		return ordinal != -1 && selected.get(ordinal);
+	}
+
+	public synchronized boolean isOrdinalSelected(int ordinal) {
+		return selected.get(ordinal);
+	}
+
+	public synchronized boolean isRowSelected(int rowIndex) {
+		if (selected.isEmpty()) return false;
+		indexVisible();
+		return selected.get(rowOrdinals[rowIndex]);
+	}
+
+	public synchronized SelectionModel<U> setSelected(RankedItem<U> rankedItem, boolean isSelected) {
+		selected.set(assignOrdinal(rankedItem), isSelected);
+		return this;
+	}
+
+	public synchronized SelectionModel<U> setRowSelected(int rowIndex, boolean isSelected) {
+		indexVisible();
+		selected.set(rowOrdinals[rowIndex], isSelected);
+		return this;
+	}
+
+	public synchronized SelectionModel<U> toggle(RankedItem<U> rankedItem) {
+		selected.flip(assignOrdinal(rankedItem));
+		return this;
+	}
+
+	public synchronized boolean isAnyVisibleSelected() {
+		if (selected.isEmpty()) return false;
+		indexVisible();
+		return selected.intersects(visible);
+	}
+
+	public synchronized SelectionModel<U> selectVisible() {
+		indexVisible();
+		selected.or(visible);
+		return this;
+	}
+
+	public synchronized SelectionModel<U> deselectVisible() {
+		indexVisible();
+		selected.andNot(visible);
+		return this;
+	}
+
+	public synchronized SelectionModel<U> invertVisible() {
+		indexVisible();
+		selected.xor(visible);
+		return this;
+	}
+
+	public synchronized SelectionModel<U> clear() {
+		selected.clear();
+		return publish(rows);
+	}
+
+	public synchronized int selectedCount() {
+		return selected.cardinality();
+	}
+
+	/*
+	 * Snapshot of the selected items in ordinal order, taken under the lock.  Later selection changes do not affect it.
+	 */
+	public synchronized List<RankedItem<U>> selectedItems() {
+		final List<RankedItem<U>> items = new ArrayList<>(selected.cardinality());
+		for (int ordinal = selected.nextSetBit(0); ordinal != -1; ordinal = selected.nextSetBit(ordinal + 1)) {
+			items.add(itemByOrdinal.get(ordinal));
+		}
+		return Collections.unmodifiableList(items);
+	}
+}
@@ -0,0 +1,128 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.swt.widgets.Display;
+
+import dakara.eclipse.plugin.command.Constants;
+import dakara.eclipse.plugin.log.EclipsePluginLogger;
+
+/*
+ * Coalesces UI updates into at most one UI thread pass per display frame.
+ * - each kind of update has a slot, scheduling replaces any update still pending in that slot.  Only the newest state is applied.
+ * - updates that are not idempotent, such as toggling a selection, are enqueued instead.  Every one of them runs, in order.
+ * - a pass runs the pending updates in slot declaration order, the scheduled update of a slot before its enqueued ones
+ * - updates may be scheduled from any thread, passes always run on the UI thread
+ * Queue depth and the number of replaced (dropped) updates are kept for diagnostics.
+ */
+public class UiUpdateScheduler<K extends Enum<K>> {
+	private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+	private final EclipsePluginLogger logger = new EclipsePluginLogger(Constants.BUNDLE_ID);
+	private final Display display;
+	private final K[] slots;
+	private final AtomicReferenceArray<Runnable> pendingUpdates;
+	private final List<Queue<Runnable>> queuedUpdates;
+	private final AtomicBoolean passScheduled = new AtomicBoolean(false);
+	private final AtomicLong scheduledCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong passCount = new AtomicLong();
+	// only accessed from the UI thread
+	private long lastPassNanos = 0;
+
+	public UiUpdateScheduler(Display display, Class<K> slotType) {
+		this.display = display;
+		this.slots = slotType.getEnumConstants();
+		this.pendingUpdates = new AtomicReferenceArray<>(slots.length);
+		this.queuedUpdates = new ArrayList<>(slots.length);
+		for (int index = 0; index < slots.length; index++) {
+			queuedUpdates.add(new ConcurrentLinkedQueue<>());
+		}
+	}
+
+	public UiUpdateScheduler<K> schedule(K slot, Runnable update) {
+		scheduledCount.incrementAndGet();
+		if (pendingUpdates.getAndSet(slot.ordinal(), update) != null) droppedCount.incrementAndGet();
+		schedulePass();
+		return this;
+	}
+
+	/*
+	 * Never replaces or drops an update, each one enqueued runs in the order enqueued
+	 */
+	public UiUpdateScheduler<K> enqueue(K slot, Runnable update) {
+		scheduledCount.incrementAndGet();
+		queuedUpdates.get(slot.ordinal()).add(update);
+		schedulePass();
+		return this;
+	}
+
+	private void schedulePass() {
+		if (passScheduled.compareAndSet(false, true) && !display.isDisposed()) {
+			display.asyncExec(this::runPass);
+		}
+	}
+
+	private void runPass() {
+		if (display.isDisposed()) return;
+		final long sinceLastPass = System.nanoTime() - lastPassNanos;
+		if (sinceLastPass < FRAME_NANOS) {
+			// already updated this frame, everything scheduled until then is merged into the next pass
+			display.timerExec((int) TimeUnit.NANOSECONDS.toMillis(FRAME_NANOS - sinceLastPass) + 1, this::runPass);
+			return;
+		}
+		lastPassNanos = System.nanoTime();
+		// updates scheduled while running schedule the next pass.  Those for slots not yet run are still applied in this pass.
+		passScheduled.set(false);
+		passCount.incrementAndGet();
+		for (K slot : slots) {
+			runUpdate(slot, pendingUpdates.getAndSet(slot.ordinal(), null));
+			final Queue<Runnable> queue = queuedUpdates.get(slot.ordinal());
+			// only those enqueued before the slot started, later ones run in the next pass
+			for (int remaining = queue.size(); remaining > 0; remaining--) {
+				runUpdate(slot, queue.poll());
+			}
+		}
+	}
+
+	private void runUpdate(K slot, Runnable update) {
+		if (update == null) return;
+		try {
+			update.run();
+		} catch (Throwable e) {
+			logger.error("Problem occurred applying ui update " + slot, e);
+		}
+	}
+
+	public int queueDepth() {
+		int depth = 0;
+		for (int index = 0; index < pendingUpdates.length(); index++) {
+			if (pendingUpdates.get(index) != null) depth++;
+			depth += queuedUpdates.get(index).size();
+		}
+		return depth;
+	}
+
+	public long scheduledCount() {
+		return scheduledCount.get();
+	}
+
+	public long droppedCount() {
+		return droppedCount.get();
+	}
+
+	public long passCount() {
+		return passCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "scheduled: " + scheduledCount() + " / dropped: " + droppedCount() + " / passes: " + passCount() + " / pending: " + queueDepth();
+	}
+}
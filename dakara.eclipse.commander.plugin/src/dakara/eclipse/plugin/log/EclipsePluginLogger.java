@@ -8,23 +8,30 @@ import org.osgi.framework.Bundle;
 
 public class EclipsePluginLogger {
 	private final String bundleId;
-	private final ILog logger;
+	// looked up on first use, so classes holding a logger can be constructed outside of a running platform
+	private volatile ILog logger;
 	public EclipsePluginLogger(String bundleId) {
 		this.bundleId = bundleId;
-		final Bundle bundle = Platform.getBundle(bundleId);
-		logger = Platform.getLog(bundle);
+	}
+	
+	private ILog log() {
+		if (logger == null) {
+			final Bundle bundle = Platform.getBundle(bundleId);
+			logger = Platform.getLog(bundle);
+		}
+		return logger;
 	}
 	
 	public void info(String message) {
-		logger.log(new Status(IStatus.INFO, bundleId, message));
+		log().log(new Status(IStatus.INFO, bundleId, message));
 	}
 	
 	public void warn(String message) {
-		logger.log(new Status(IStatus.WARNING, bundleId, message));
+		log().log(new Status(IStatus.WARNING, bundleId, message));
 	}
 	
 	public void error(String message, Throwable error) {
-		logger.log(new Status(IStatus.ERROR, bundleId, message, error));
+		log().log(new Status(IStatus.ERROR, bundleId, message, error));
 	}
 	
 }
@@ -15,9 +15,12 @@ import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.IEditorReference;
 import org.eclipse.ui.IFileEditorInput;
 import org.eclipse.ui.IPartListener2;
+import org.eclipse.ui.IWorkbench;
+import org.eclipse.ui.IWorkbenchListener;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchPartReference;
 import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.PlatformUI;
 
 
 public class EclipseWorkbench {
@@ -81,4 +84,15 @@ public class EclipseWorkbench {
 		};
 		page.addPartListener(pl);
 	}
+	
+	public static void runBeforeShutdown(Runnable shutdownAction) {
+		PlatformUI.getWorkbench().addWorkbenchListener(new IWorkbenchListener() {
+			public boolean preShutdown(IWorkbench workbench, boolean forced) {
+				shutdownAction.run();
+				return true;
+			}
+
+			public void postShutdown(IWorkbench workbench) {}
+		});
+	}
 }
@@ -5,8 +5,14 @@ import java.util.function.Function;
 public class FieldResolver<T> {
 	public final String fieldId;
 	public final Function<T, String> fieldResolver;
+	// optional, resolves the field already analyzed for scoring.  null when the field text is analyzed on each ranking.
+	public final Function<T, StringCursorPrimitive> analyzedFieldResolver;
 	public FieldResolver(String fieldId, Function<T, String> fieldResolver) {
+		this(fieldId, fieldResolver, null);
+	}
+	public FieldResolver(String fieldId, Function<T, String> fieldResolver, Function<T, StringCursorPrimitive> analyzedFieldResolver) {
 		this.fieldId = fieldId;
 		this.fieldResolver = fieldResolver;
+		this.analyzedFieldResolver = analyzedFieldResolver;
 	}
 }
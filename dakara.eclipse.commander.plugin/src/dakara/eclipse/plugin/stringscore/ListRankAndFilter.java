@@ -1,21 +1,28 @@
 package dakara.eclipse.plugin.stringscore;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import dakara.eclipse.plugin.kavi.picklist.InputCommand;
-import dakara.eclipse.plugin.stringscore.RankedItem.RankedItemFactory;
+import dakara.eclipse.plugin.stringscore.RankedItem.ScoreSlots;
 import dakara.eclipse.plugin.stringscore.StringScore.Score;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 
 public class ListRankAndFilter<T> {
 	private List<FieldResolver<T>> fields = new ArrayList<>();
+	private String[] fieldIds = new String[0];
 	private BiFunction<String, String, Score> rankingStrategy;
+	private BiFunction<String, StringCursorPrimitive, Score> analyzedRankingStrategy;
 	private Function<T, String> sortFieldResolver;
+	private Function<T, StringCursorPrimitive> allFieldsAnalyzedResolver;
+	private volatile ToIntFunction<T> boostResolver;
+	private static final ThreadLocal<ScoreSlots> SCORE_SLOTS = ThreadLocal.withInitial(ScoreSlots::new);
 	
 	public ListRankAndFilter(BiFunction<String, String, Score> rankingStrategy, Function<T, String> sortFieldResolver) {
 		this.rankingStrategy = rankingStrategy;
@@ -26,38 +33,97 @@ public class ListRankAndFilter<T> {
 		StringScore stringScore = new StringScore(StringScoreRanking.standardContiguousSequenceRanking(), StringScoreRanking.standardAcronymRanking(), StringScoreRanking.standardNonContiguousSequenceRanking());
 		return new ListRankAndFilter<>(
 				(filter, columnText) -> stringScore.scoreCombination(filter, columnText),
-				sortFieldResolver);
+				sortFieldResolver).
+				setAnalyzedRankingStrategy((filter, analyzedColumnText) -> stringScore.scoreCombination(filter, analyzedColumnText));
+	}
+	
+	public ListRankAndFilter<T> setAnalyzedRankingStrategy(BiFunction<String, StringCursorPrimitive, Score> analyzedRankingStrategy) {
+		this.analyzedRankingStrategy = analyzedRankingStrategy;
+		return this;
 	}
 	
 	public ListRankAndFilter<T> addField(String fieldId, Function<T, String> fieldResolver) {
-		fields.add(new FieldResolver<>(fieldId, fieldResolver));
+		return addField(new FieldResolver<>(fieldId, fieldResolver));
+	}
+	
+	public ListRankAndFilter<T> addField(FieldResolver<T> field) {
+		fields.add(field);
+		fieldIds = makeFieldIds();
+		return this;
+	}
+	
+	/*
+	 * Optional, resolves the text of all fields joined by a single space, in field order, trimmed and already analyzed.
+	 * Used instead of joining and analyzing the fields on each ranking when not filtering by column.
+	 */
+	public ListRankAndFilter<T> setAllFieldsAnalyzedResolver(Function<T, StringCursorPrimitive> allFieldsAnalyzedResolver) {
+		this.allFieldsAnalyzedResolver = allFieldsAnalyzedResolver;
 		return this;
 	}
+	/*
+	 * Optional, items with equal scores are ordered by boost, highest first.  Resolved once per item for each ranking,
+	 * so it should be a precomputed lookup such as PersistedWorkingSet.getFrecencyBoosts.
+	 */
+	public ListRankAndFilter<T> setBoostResolver(ToIntFunction<T> boostResolver) {
+		this.boostResolver = boostResolver;
+		return this;
+	}
+	
 	// TODO - provide version that returns a stream
 	// this will allow better optimization of post filtering and sorting from the internal provider proxy
 	public List<RankedItem<T>> rankAndFilter(final InputCommand inputCommand, List<T> items) {
-		if (!inputCommand.isColumnFiltering && inputCommand.getColumnFilter(0).length() == 0) return makeRankedList(items);
+		final char[][][] exclusions = makeExclusions(inputCommand);
+		if (!inputCommand.isColumnFiltering && inputCommand.getColumnFilter(0).length() == 0) return makeRankedList(removeExcluded(items, exclusions));
 
-		return items.parallelStream().
-				       map(item -> new RankedItem<>(item)).
-				       map(item -> setItemRank(item, inputCommand)).
-				       filter(item -> item.totalScore() > 0).
-				       sorted(Comparator.comparing((RankedItem<T> item) -> item.totalScore()).reversed().thenComparing(item -> sortFieldResolver.apply((T) item.dataItem))).
-					   collect(Collectors.toList());
+		return sort(items.parallelStream().
+				       map(item -> rankItem(item, 0, inputCommand, exclusions)).
+				       filter(item -> item != null).
+					   collect(Collectors.toList()), true);
 	}
 	
 	public List<RankedItem<T>> rankAndFilterOrdered(final InputCommand inputCommand, List<T> items) {
-		RankedItemFactory<T> rankedItemFactory = new RankedItemFactory<>();
-		List<RankedItem<T>> rankedItems = new ArrayList<>();
-		for (T item : items) {
-			rankedItems.add(rankedItemFactory.make(item));
+		final char[][][] exclusions = makeExclusions(inputCommand);
+		if (!inputCommand.isColumnFiltering && inputCommand.getColumnFilter(0).length() == 0) return makeRankedListOrdered(removeExcluded(items, exclusions));
+		
+		return sort(IntStream.range(0, items.size()).parallel().
+				       mapToObj(order -> rankItem(items.get(order), order, inputCommand, exclusions)).
+				       filter(item -> item != null).
+					   collect(Collectors.toList()), false);
+	}
+	
+	/*
+	 * Highest score first, then highest boost, then by sort key or by order.
+	 * Scores, boosts and sort keys are resolved once per item into arrays, the comparisons only read the arrays.
+	 */
+	private List<RankedItem<T>> sort(List<RankedItem<T>> rankedItems, boolean bySortKey) {
+		final int size = rankedItems.size();
+		final int[] rows = new int[size];
+		final int[] scores = new int[size];
+		final int[] boosts = new int[size];
+		final int[] orders = new int[size];
+		final String[] sortKeys = bySortKey ? new String[size] : null;
+		final ToIntFunction<T> boostResolver = this.boostResolver;
+		for (int row = 0; row < size; row++) {
+			final RankedItem<T> rankedItem = rankedItems.get(row);
+			rows[row] = row;
+			scores[row] = rankedItem.totalScore();
+			boosts[row] = boostResolver != null ? boostResolver.applyAsInt(rankedItem.dataItem) : 0;
+			orders[row] = rankedItem.order;
+			if (bySortKey) sortKeys[row] = sortFieldResolver.apply(rankedItem.dataItem);
 		}
-		if (!inputCommand.isColumnFiltering && inputCommand.getColumnFilter(0).length() == 0) return makeRankedListOrdered(rankedItems);
-		return rankedItems.parallelStream().
-				       map(item -> setItemRank(item, inputCommand)).
-				       filter(item -> item.totalScore() > 0).
-				       sorted(Comparator.comparing((RankedItem<T> item) -> item.totalScore()).reversed().thenComparing(item -> item.order)).
-					   collect(Collectors.toList());
+		
+		IntArrays.mergeSort(rows, (rowA, rowB) -> {
+			if (scores[rowA] != scores[rowB]) return Integer.compare(scores[rowB], scores[rowA]);
+			if (boosts[rowA] != boosts[rowB]) return Integer.compare(boosts[rowB], boosts[rowA]);
+			if (bySortKey) return sortKeys[rowA].compareTo(sortKeys[rowB]);
+			return Integer.compare(orders[rowA], orders[rowB]);
+		});
+		
+		final List<RankedItem<T>> sortedItems = new ArrayList<>(size);
+		for (int row : rows) {
+			sortedItems.add(rankedItems.get(row));
+		}
+		return sortedItems;
 	}
 	
 	public List<RankedItem<T>> moveItem(List<RankedItem<T>> itemList, T item, int order) {
@@ -66,58 +132,163 @@ public class ListRankAndFilter<T> {
 		return filteredList;
 	}
 	
-	private List<RankedItem<T>> makeRankedListOrdered(List<RankedItem<T>> items) {
-		return items.parallelStream().
-	       sorted(Comparator.comparing((item) -> item.order)).
-		   collect(Collectors.toList());
+	private List<RankedItem<T>> makeRankedListOrdered(List<T> items) {
+		List<RankedItem<T>> rankedItems = new ArrayList<>(items.size());
+		for (int order = 0; order < items.size(); order++) {
+			rankedItems.add(new RankedItem<>(items.get(order), order));
+		}
+		if (this.boostResolver == null) return rankedItems;
+		return sort(rankedItems, false);
 	}
 	
 	private List<RankedItem<T>> makeRankedList(List<T> items) {
-		return items.parallelStream().
+		return sort(items.parallelStream().
 	       map(item -> new RankedItem<>(item)).
-	       sorted(Comparator.comparing(item -> sortFieldResolver.apply((T) item.dataItem))).
-		   collect(Collectors.toList());
+		   collect(Collectors.toList()), true);
+	}
+	
+	/*
+	 * Shared by all ranked items, so consumers can cache field ordinals for as long as the array instance does not change
+	 */
+	private String[] makeFieldIds() {
+		String[] fieldIds = new String[fields.size()];
+		for (int index = 0; index < fields.size(); index++) {
+			fieldIds[index] = fields.get(index).fieldId;
+		}
+		return fieldIds;
+	}
+	
+	/*
+	 * Lower cased exclusion terms per field, null when there are none.
+	 * When not filtering by column every field has the terms of the single filter.
+	 */
+	private char[][][] makeExclusions(final InputCommand inputCommand) {
+		if (!inputCommand.hasExclusions()) return null;
+		final char[][][] exclusions = new char[fields.size()][][];
+		for (int index = 0; index < fields.size(); index++) {
+			final List<String> terms = inputCommand.getColumnExclusions(index);
+			exclusions[index] = new char[terms.size()][];
+			for (int termIndex = 0; termIndex < terms.size(); termIndex++) {
+				exclusions[index][termIndex] = toLowerCase(terms.get(termIndex));
+			}
+		}
+		return exclusions;
 	}
 	
-	private RankedItem<T> setItemRank(RankedItem<T> rankedItem, final InputCommand inputCommand) {
+	private List<T> removeExcluded(List<T> items, final char[][][] exclusions) {
+		if (exclusions == null) return items;
+		return items.parallelStream().filter(item -> !isExcluded(item, exclusions, false)).collect(Collectors.toList());
+	}
+	
+	/*
+	 * Literal containment only, so excluding is cheaper than scoring and is done first
+	 */
+	private boolean isExcluded(T item, final char[][][] exclusions, boolean isColumnFiltering) {
+		if (!isColumnFiltering && allFieldsAnalyzedResolver != null && fields.size() > 0) {
+			return containsAny(allFieldsAnalyzedResolver.apply(item), exclusions[0]);
+		}
+		for (int index = 0; index < fields.size(); index++) {
+			if (exclusions[index].length == 0) continue;
+			final FieldResolver<T> field = fields.get(index);
+			if (field.analyzedFieldResolver != null) {
+				if (containsAny(field.analyzedFieldResolver.apply(item), exclusions[index])) return true;
+			} else if (containsAny(field.fieldResolver.apply(item), exclusions[index])) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean containsAny(StringCursorPrimitive text, char[][] terms) {
+		if (text == null) return false;
+		for (char[] term : terms) {
+			if (text.indexOf(term, 0) >= 0) return true;
+		}
+		return false;
+	}
+	
+	private static boolean containsAny(String text, char[][] terms) {
+		if (text == null) return false;
+		for (char[] term : terms) {
+			final int max = text.length() - term.length;
+			for (int offset = 0; offset <= max; offset++) {
+				int index = 0;
+				while (index < term.length && Character.toLowerCase(text.charAt(offset + index)) == term[index]) index++;
+				if (index == term.length) return true;
+			}
+		}
+		return false;
+	}
+	
+	/*
+	 * Lower cased the same way as StringCursorPrimitive
+	 */
+	private static char[] toLowerCase(String text) {
+		final char[] lowerCased = new char[text.length()];
+		for (int index = 0; index < text.length(); index++) {
+			lowerCased[index] = Character.toLowerCase(text.charAt(index));
+		}
+		return lowerCased;
+	}
+	
+	/*
+	 * Returns null when the item is filtered out
+	 */
+	private RankedItem<T> rankItem(T item, int order, final InputCommand inputCommand, final char[][][] exclusions) {
+		ScoreSlots scoreSlots = SCORE_SLOTS.get().reset(fields.size());
 		try {
-			rankedItem.setScoreModeByColumn(inputCommand.isColumnFiltering);
-			
+			if (exclusions != null && isExcluded(item, exclusions, inputCommand.isColumnFiltering)) return null;
 			if (inputCommand.isColumnFiltering) {
 				int searchableColumnCount = 0;
 				for (FieldResolver<T> field : fields) {
-					rankedItem.addScore(rankingStrategy.apply(inputCommand.getColumnFilter(searchableColumnCount), field.fieldResolver.apply(rankedItem.dataItem)), field.fieldId);
+					final String columnFilter = inputCommand.getColumnFilter(searchableColumnCount);
+					final MatchPattern columnPattern = inputCommand.getColumnPattern(searchableColumnCount);
+					if (columnPattern != null) {
+						if (field.analyzedFieldResolver != null) scoreSlots.addField(columnPattern.score(field.analyzedFieldResolver.apply(item)));
+						else scoreSlots.addField(columnPattern.score(field.fieldResolver.apply(item)));
+					} else if (field.analyzedFieldResolver != null && analyzedRankingStrategy != null) {
+						scoreSlots.addField(analyzedRankingStrategy.apply(columnFilter, field.analyzedFieldResolver.apply(item)));
+					} else {
+						scoreSlots.addField(rankingStrategy.apply(columnFilter, field.fieldResolver.apply(item)));
+					}
 					searchableColumnCount++;
 				} 
 			} else {
-				List<Score> scores = scoreAllAsOneColumn(rankedItem, inputCommand);
-				for (FieldResolver<T> field : fields) {
-					rankedItem.addScore(scores.remove(0), field.fieldId);
-				} 
+				scoreAllAsOneColumn(item, inputCommand, scoreSlots);
 			}
 		} catch (Throwable e) {
 			e.printStackTrace();
 			// TODO need to figure out how to properly handle
 			// currently since this happens in rxjava thread, we can't throw
+			return null;
 		}
-		return rankedItem;
+		
+		final int totalScore = scoreSlots.totalScore(inputCommand.isColumnFiltering);
+		if (totalScore <= 0) return null;
+		return scoreSlots.makeRankedItem(item, order, fieldIds, totalScore);
 	}
 	
-	private List<Score> scoreAllAsOneColumn(RankedItem<T> listItem, final InputCommand inputCommand) {
-		IntArrayList indexesOfColumnBreaks = new IntArrayList();
-		StringBuilder allColumnText = new StringBuilder();
-		buildAllColumnTextAndIndexes(listItem, indexesOfColumnBreaks, allColumnText);
-		
-		Score allColumnScore = rankingStrategy.apply( inputCommand.getColumnFilter(0), allColumnText.toString());
+	private void scoreAllAsOneColumn(T item, final InputCommand inputCommand, ScoreSlots scoreSlots) {
+		IntArrayList indexesOfColumnBreaks = new IntArrayList(fields.size());
+		final MatchPattern pattern = inputCommand.getColumnPattern(0);
+		Score allColumnScore;
+		if (allFieldsAnalyzedResolver != null && (analyzedRankingStrategy != null || pattern != null)) {
+			buildAllColumnIndexes(item, indexesOfColumnBreaks);
+			if (pattern != null) allColumnScore = pattern.score(allFieldsAnalyzedResolver.apply(item));
+			else allColumnScore = analyzedRankingStrategy.apply(inputCommand.getColumnFilter(0), allFieldsAnalyzedResolver.apply(item));
+		} else {
+			StringBuilder allColumnText = new StringBuilder();
+			buildAllColumnTextAndIndexes(item, indexesOfColumnBreaks, allColumnText);
+			if (pattern != null) allColumnScore = pattern.score(allColumnText.toString());
+			else allColumnScore = rankingStrategy.apply( inputCommand.getColumnFilter(0), allColumnText.toString());
+		}
 		if (allColumnScore.rank > 0) {
-			return convertScoreToMatchesPerColumn(allColumnText.toString(), allColumnScore, indexesOfColumnBreaks);
+			convertScoreToMatchesPerColumn(allColumnScore, indexesOfColumnBreaks, scoreSlots);
 		} else {
 			// There was no match.  Add the empty to score to all columns
-			List<Score> scores = new ArrayList<>();
-			for (FieldResolver<T> field : fields) {
-				scores.add(allColumnScore);
+			for (int index = 0; index < fields.size(); index++) {
+				scoreSlots.addField(allColumnScore);
 			} 
-			return scores;
 		}
 	}
 
@@ -125,32 +296,41 @@ public class ListRankAndFilter<T> {
 	 * concatenate all columns together with space separators.
 	 * create list of index's where columns were joined
 	 */
-	private void buildAllColumnTextAndIndexes(RankedItem<T> listItem, IntArrayList indexesOfColumnBreaks, StringBuilder allColumnText) {
+	private void buildAllColumnTextAndIndexes(T item, IntArrayList indexesOfColumnBreaks, StringBuilder allColumnText) {
 		for (int index = 0; index < fields.size(); index++) {
 			FieldResolver<T> column = fields.get(index);
-			String columnContent = column.fieldResolver.apply(listItem.dataItem);
+			String columnContent = column.fieldResolver.apply(item);
 			allColumnText.append(columnContent);
 			if (index < fields.size() - 1) allColumnText.append(" ");
 			indexesOfColumnBreaks.add(allColumnText.length() - 1);
 		}
 	}	
 	
-	private List<Score> convertScoreToMatchesPerColumn(String originalText, Score allColumnScore, IntArrayList indexesOfColumnBreaks) {
-		List<Score> scores = new ArrayList<>();
-		IntArrayList matches = new IntArrayList();
+	/*
+	 * Same indexes as buildAllColumnTextAndIndexes without joining the text
+	 */
+	private void buildAllColumnIndexes(T item, IntArrayList indexesOfColumnBreaks) {
+		int length = 0;
+		for (int index = 0; index < fields.size(); index++) {
+			String columnContent = fields.get(index).fieldResolver.apply(item);
+			length += String.valueOf(columnContent).length();
+			if (index < fields.size() - 1) length++;
+			indexesOfColumnBreaks.add(length - 1);
+		}
+	}
+	
+	private void convertScoreToMatchesPerColumn(Score allColumnScore, IntArrayList indexesOfColumnBreaks, ScoreSlots scoreSlots) {
+		final IntArrayList matches = allColumnScore.matches;
+		int matchIndex = 0;
 		int offset = 0;
 		
 		for (int endOfColumnIndex : indexesOfColumnBreaks) {
-			for (int index = offset; index <= endOfColumnIndex; index++) {
-				if (allColumnScore.matches.size() > 0 && index == allColumnScore.matches.getInt(0)) {
-					allColumnScore.matches.removeInt(0);
-					matches.add(index - offset);
-				}
+			scoreSlots.startField(allColumnScore.rank);
+			while (matchIndex < matches.size() && matches.getInt(matchIndex) <= endOfColumnIndex) {
+				scoreSlots.addMatch(matches.getInt(matchIndex) - offset);
+				matchIndex++;
 			}
-			scores.add(new Score(allColumnScore.rank, matches));
-			matches = new IntArrayList();
 			offset = endOfColumnIndex + 1;
 		}		
-		return scores;
 	}
 }
@@ -0,0 +1,228 @@
+package dakara.eclipse.plugin.stringscore;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import dakara.eclipse.plugin.stringscore.StringScore.Score;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/*
+ * Regex and glob matching, an alternative to the fuzzy strategies of StringScore.
+ * - matching is case insensitive, against the lower cased text of a StringCursorPrimitive
+ * - literals every match must contain are extracted from the pattern and checked with indexOf before the pattern runs
+ * - the capturing groups that matched are highlighted, or the whole match when there are none
+ * - a glob matches whole words, separated by white space.  '*' and '?' do not match '/', '**' does.
+ * - compiled patterns are cached by pattern text.  An invalid pattern matches nothing.
+ */
+public class MatchPattern {
+	private static final int MAX_CACHED = 256;
+	private static final Map<String, MatchPattern> regexByText = new ConcurrentHashMap<>();
+	private static final Map<String, MatchPattern> globByText = new ConcurrentHashMap<>();
+	// rank 0, unlike an empty filter a pattern that does not match filters out the row when scoring per column
+	private static final Score NOT_FOUND_SCORE = new Score(0, new IntArrayList(0));
+
+	private final Pattern pattern;
+	private final char[][] literals;
+
+	private MatchPattern(Pattern pattern, List<String> literals) {
+		this.pattern = pattern;
+		this.literals = new char[literals.size()][];
+		for (int index = 0; index < literals.size(); index++) {
+			// lower cased the same way as StringCursorPrimitive
+			final char[] literal = literals.get(index).toCharArray();
+			for (int charIndex = 0; charIndex < literal.length; charIndex++) {
+				literal[charIndex] = Character.toLowerCase(literal[charIndex]);
+			}
+			this.literals[index] = literal;
+		}
+	}
+
+	public static MatchPattern regex(String regex) {
+		return cached(regexByText, regex, MatchPattern::compileRegex);
+	}
+
+	public static MatchPattern glob(String glob) {
+		return cached(globByText, glob, MatchPattern::compileGlob);
+	}
+
+	private static MatchPattern cached(Map<String, MatchPattern> patternByText, String text, Function<String, MatchPattern> compile) {
+		MatchPattern matchPattern = patternByText.get(text);
+		if (matchPattern != null) return matchPattern;
+		matchPattern = compile.apply(text);
+		if (patternByText.size() >= MAX_CACHED) patternByText.clear();
+		patternByText.put(text, matchPattern);
+		return matchPattern;
+	}
+
+	public boolean isValid() {
+		return pattern != null;
+	}
+
+	public Score score(String target) {
+		if ((target == null) || (target.length() == 0)) return NOT_FOUND_SCORE;
+		return score(new StringCursorPrimitive(target.trim()));
+	}
+
+	public Score score(StringCursorPrimitive target) {
+		if ((pattern == null) || (target == null)) return NOT_FOUND_SCORE;
+		for (char[] literal : literals) {
+			if (target.indexOf(literal, 0) < 0) return NOT_FOUND_SCORE;
+		}
+
+		final Matcher matcher = pattern.matcher(target.asString());
+		if (!matcher.find()) return NOT_FOUND_SCORE;
+		return new Score(rank(matcher, target), highlights(matcher));
+	}
+
+	/*
+	 * Same scale as the contiguous sequence ranking.  Whole text, word start, anywhere, with a bonus for matching at the beginning.
+	 */
+	private static int rank(Matcher matcher, StringCursorPrimitive target) {
+		int rank = 1;
+		if (matcher.start() == 0 && matcher.end() == target.length()) {
+			rank = 3;
+		} else if (matcher.start() < target.length() && (target.properties[matcher.start()] & (StringCursorPrimitive.F_WORD_PARTIAL_START | StringCursorPrimitive.F_WORDSTART)) != 0) {
+			rank = 2;
+		}
+		if (matcher.start() == 0) rank += 1;
+		return rank;
+	}
+
+	private static IntArrayList highlights(Matcher matcher) {
+		final IntArrayList matches = new IntArrayList();
+		int highlightedGroups = 0;
+		for (int group = 1; group <= matcher.groupCount(); group++) {
+			if (matcher.start(group) < 0) continue;
+			addRange(matches, matcher.start(group), matcher.end(group));
+			highlightedGroups++;
+		}
+		if (highlightedGroups == 0) addRange(matches, matcher.start(), matcher.end());
+
+		// groups can nest or overlap, highlights must be ordered and distinct
+		matches.sort(Comparator.naturalOrder());
+		int distinct = 0;
+		for (int index = 0; index < matches.size(); index++) {
+			if (distinct == 0 || matches.getInt(distinct - 1) != matches.getInt(index)) matches.set(distinct++, matches.getInt(index));
+		}
+		matches.size(distinct);
+		return matches;
+	}
+
+	private static void addRange(IntArrayList matches, int start, int end) {
+		for (int position = start; position < end; position++) {
+			matches.add(position);
+		}
+	}
+
+	private static MatchPattern compileRegex(String regex) {
+		try {
+			return new MatchPattern(Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE), regexLiterals(regex));
+		} catch (PatternSyntaxException e) {
+			return new MatchPattern(null, new ArrayList<>());
+		}
+	}
+
+	private static MatchPattern compileGlob(String glob) {
+		final StringBuilder regex = new StringBuilder("(?<!\\S)");
+		final List<String> literals = new ArrayList<>();
+		final StringBuilder literal = new StringBuilder();
+		for (int index = 0; index < glob.length(); index++) {
+			final char character = glob.charAt(index);
+			if (character == '*' || character == '?') {
+				endLiteral(literal, literals);
+				if (character == '?') {
+					regex.append("[^/\\s]");
+				} else if (index + 1 < glob.length() && glob.charAt(index + 1) == '*') {
+					regex.append("\\S*");
+					index++;
+				} else {
+					regex.append("[^/\\s]*");
+				}
+			} else {
+				literal.append(character);
+				regex.append(Pattern.quote(String.valueOf(character)));
+			}
+		}
+		endLiteral(literal, literals);
+		regex.append("(?!\\S)");
+		return new MatchPattern(Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE), literals);
+	}
+
+	/*
+	 * Runs of literal characters outside of groups that every match must contain.
+	 * Conservative, any alternation means there are none, and a quantifier that allows zero drops the character before it.
+	 */
+	static List<String> regexLiterals(String regex) {
+		final List<String> literals = new ArrayList<>();
+		if (regex.indexOf('|') >= 0) return literals;
+
+		final StringBuilder literal = new StringBuilder();
+		int groupDepth = 0;
+		for (int index = 0; index < regex.length(); index++) {
+			final char character = regex.charAt(index);
+			switch (character) {
+			case '(':
+				groupDepth++;
+				endLiteral(literal, literals);
+				break;
+			case ')':
+				groupDepth--;
+				endLiteral(literal, literals);
+				break;
+			case '[':
+				endLiteral(literal, literals);
+				index = endOfCharacterClass(regex, index);
+				break;
+			case '?':
+			case '*':
+			case '{':
+				if (literal.length() > 0) literal.setLength(literal.length() - 1);
+				endLiteral(literal, literals);
+				if (character == '{') index = Math.max(index, regex.indexOf('}', index));
+				break;
+			case '\\':
+				if (index + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(index + 1))) {
+					if (groupDepth == 0) literal.append(regex.charAt(index + 1));
+				} else {
+					endLiteral(literal, literals);
+				}
+				index++;
+				break;
+			case '.':
+			case '^':
+			case '$':
+			case '+':
+				// the character before a '+' is still mandatory, it just ends the run
+				endLiteral(literal, literals);
+				break;
+			default:
+				if (groupDepth == 0) literal.append(character);
+			}
+		}
+		endLiteral(literal, literals);
+		return literals;
+	}
+
+	private static int endOfCharacterClass(String regex, int start) {
+		int index = start + 1;
+		if (index < regex.length() && regex.charAt(index) == '^') index++;
+		if (index < regex.length() && regex.charAt(index) == ']') index++;
+		while (index < regex.length() && regex.charAt(index) != ']') {
+			if (regex.charAt(index) == '\\') index++;
+			index++;
+		}
+		return index;
+	}
+
+	private static void endLiteral(StringBuilder literal, List<String> literals) {
+		if (literal.length() > 0) literals.add(literal.toString());
+		literal.setLength(0);
+	}
+}
@@ -1,71 +1,190 @@
 package dakara.eclipse.plugin.stringscore;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 import dakara.eclipse.plugin.stringscore.StringScore.Score;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
+/*
+ * Scores are stored by field ordinal rather than by field id.
+ * - ranks[ordinal] is the rank of the field
+ * - matches for a field are packed in matchPositions between matchOffsets[ordinal] and matchOffsets[ordinal + 1]
+ * - fieldIds is shared by all items ranked by the same ListRankAndFilter
+ * Items which were never scored have no ranks and a total score of 0.
+ */
 public final class RankedItem<T> {
+	private static final String[] NO_FIELDS = new String[0];
+	private static final int[] NO_RANKS = new int[0];
+	private static final int[] NO_MATCH_OFFSETS = new int[] {0};
+
 	public final T dataItem;
-	private Map<String, Score> scores = new HashMap<>();
-	private boolean scorePerColumn = false;
+	private final String[] fieldIds;
+	private final int[] ranks;
+	private final int[] matchOffsets;
+	private final int[] matchPositions;
+	private final int totalScore;
 	public int order = 0;
 	public RankedItem(T dataItem) {
-		this.dataItem = dataItem;
+		this(dataItem, 0);
 	}
 	public RankedItem(T dataItem, int order) {
+		this(dataItem, order, NO_FIELDS, NO_RANKS, NO_MATCH_OFFSETS, NO_RANKS, 0);
+	}
+	RankedItem(T dataItem, int order, String[] fieldIds, int[] ranks, int[] matchOffsets, int[] matchPositions, int totalScore) {
 		this.dataItem = dataItem;
 		this.order = order;
+		this.fieldIds = fieldIds;
+		this.ranks = ranks;
+		this.matchOffsets = matchOffsets;
+		this.matchPositions = matchPositions;
+		this.totalScore = totalScore;
 	}
 	public T getDataItem() {
 		return dataItem;
 	}
-	public void addScore(Score score, String fieldId) {
-		scores.put(fieldId, score);
+
+	public int fieldCount() {
+		return ranks.length;
 	}
-	public Score getColumnScore(String fieldId) {
-		return scores.get(fieldId);
+
+	/*
+	 * Returns -1 when the field was not scored.
+	 * Items ranked by the same ListRankAndFilter share the same ordinals, so callers can resolve once and cache.
+	 */
+	public int fieldOrdinal(String fieldId) {
+		for (int ordinal = 0; ordinal < fieldIds.length; ordinal++) {
+			if (fieldIds[ordinal].equals(fieldId)) return ordinal;
+		}
+		return -1;
 	}
-	
-	public void setScoreModeByColumn(boolean scorePerColumn) {
-		this.scorePerColumn = scorePerColumn;
+
+	public boolean sharesFieldsWith(RankedItem<?> other) {
+		return fieldIds == other.fieldIds;
 	}
-	
-	public int totalScore() {
-		int sum = 0;
-		if (scorePerColumn) {
-			for (Score score : scores.values()) {
-				if (score.rank == 0) return 0;
-				if (score.rank < 0) continue;
-				sum += score.rank;
-			}
 
-			return sum;
-		}
+	public int getRank(int fieldOrdinal) {
+		return ranks[fieldOrdinal];
+	}
+
+	public int matchCount(int fieldOrdinal) {
+		if (fieldOrdinal < 0 || fieldOrdinal >= ranks.length) return 0;
+		return matchOffsets[fieldOrdinal + 1] - matchOffsets[fieldOrdinal];
+	}
+
+	public int matchPosition(int fieldOrdinal, int matchIndex) {
+		return matchPositions[matchOffsets[fieldOrdinal] + matchIndex];
+	}
 
-		// Each score has the same rank when not scoring per column.  It the the score of the entire row.
-		for (Score score : scores.values()) {
-			return score.rank;
+	/*
+	 * Convenience lookup by field id.  Creates a new score on each call, rendering should use the ordinal methods instead.
+	 */
+	public Score getColumnScore(String fieldId) {
+		final int ordinal = fieldOrdinal(fieldId);
+		if (ordinal == -1) return null;
+		IntArrayList matches = new IntArrayList(matchCount(ordinal));
+		for (int matchIndex = 0; matchIndex < matchCount(ordinal); matchIndex++) {
+			matches.add(matchPosition(ordinal, matchIndex));
 		}
-		return sum;
+		return new Score(ranks[ordinal], matches);
+	}
+
+	public int totalScore() {
+		return totalScore;
 	}
 	
+	/*
+	 * Same data item with the same ranks and matches.  Such items render identically.
+	 */
+	public boolean sameRanking(RankedItem<?> other) {
+		if (other == this) return true;
+		if (other == null || !dataItem.equals(other.dataItem)) return false;
+		return totalScore == other.totalScore &&
+			   Arrays.equals(ranks, other.ranks) &&
+			   Arrays.equals(matchOffsets, other.matchOffsets) &&
+			   Arrays.equals(matchPositions, other.matchPositions);
+	}
+
 	@SuppressWarnings("rawtypes")
 	public boolean equals(Object obj) {
 		if (!(obj instanceof RankedItem)) return false;
-		
+
 		return dataItem.equals(((RankedItem)obj).dataItem);
 	};
-	
+
 	@Override
 	public int hashCode() {
 		return dataItem.hashCode();
 	}
-	
+
 	public static final class RankedItemFactory<T> {
 		private static int order = 0;
 		public RankedItem<T> make(T dataItem) {
 			return new RankedItem<T>(dataItem, order++);
 		}
 	}
-}
\ No newline at end of file
+
+	/*
+	 * Reusable scoring slots for a single row.  A row is scored into the slots and only copied into
+	 * a RankedItem when it has a positive total score, so rows that are filtered out allocate nothing.
+	 * Not thread safe, use one instance per thread.
+	 */
+	static final class ScoreSlots {
+		private int[] ranks = new int[4];
+		private int[] matchOffsets = new int[5];
+		private final IntArrayList matchPositions = new IntArrayList(64);
+		private int fieldCount = 0;
+
+		ScoreSlots reset(int fieldCount) {
+			if (ranks.length < fieldCount) {
+				ranks = new int[fieldCount];
+				matchOffsets = new int[fieldCount + 1];
+			}
+			this.fieldCount = 0;
+			matchPositions.clear();
+			return this;
+		}
+
+		ScoreSlots startField(int rank) {
+			ranks[fieldCount] = rank;
+			matchOffsets[fieldCount] = matchPositions.size();
+			fieldCount++;
+			return this;
+		}
+
+		ScoreSlots addMatch(int matchPosition) {
+			matchPositions.add(matchPosition);
+			return this;
+		}
+
+		ScoreSlots addField(Score score) {
+			startField(score.rank);
+			matchPositions.addAll(score.matches);
+			return this;
+		}
+
+		int totalScore(boolean scorePerColumn) {
+			if (fieldCount == 0) return 0;
+			if (!scorePerColumn) {
+				// Each score has the same rank when not scoring per column.  It the the score of the entire row.
+				return ranks[0];
+			}
+
+			int sum = 0;
+			for (int ordinal = 0; ordinal < fieldCount; ordinal++) {
+				if (ranks[ordinal] == 0) return 0;
+				if (ranks[ordinal] < 0) continue;
+				sum += ranks[ordinal];
+			}
+			return sum;
+		}
+
+		<T> RankedItem<T> makeRankedItem(T dataItem, int order, String[] fieldIds, int totalScore) {
+			matchOffsets[fieldCount] = matchPositions.size();
+			return new RankedItem<>(dataItem, order, fieldIds,
+									Arrays.copyOf(ranks, fieldCount),
+									Arrays.copyOf(matchOffsets, fieldCount + 1),
+									matchPositions.toIntArray(),
+									totalScore);
+		}
+	}
+}
@@ -173,7 +173,7 @@ public class StringCursor {
 		int indexOfCursor = startIndex + 1;
 		int count = 0;
 		while(indexOfCursor < endIndex) {
-			if ((text.properties[indexOfCursor] & (text.F_WORD_PARTIAL_START | text.F_WORDSTART)) != 0) {
+			if ((text.properties[indexOfCursor] & (StringCursorPrimitive.F_WORD_PARTIAL_START | StringCursorPrimitive.F_WORDSTART)) != 0) {
 				count++;
 			} 
 			indexOfCursor++;
@@ -185,7 +185,7 @@ public class StringCursor {
 		int indexOfCursor = startIndex + 1;
 		int count = 0;
 		while(indexOfCursor < endIndex) {
-			if ((text.properties[indexOfCursor] & (text.F_WORDSTART)) != 0) {
+			if ((text.properties[indexOfCursor] & (StringCursorPrimitive.F_WORDSTART)) != 0) {
 				count++;
 			} 
 			indexOfCursor++;
@@ -243,11 +243,11 @@ public class StringCursor {
 	}
 	
 	public boolean cursorAtPartialWordStart() {
-		return (text.properties[indexOfCursor] & (text.F_WORD_PARTIAL_START | text.F_WORDSTART)) != 0;
+		return (text.properties[indexOfCursor] & (StringCursorPrimitive.F_WORD_PARTIAL_START | StringCursorPrimitive.F_WORDSTART)) != 0;
 	}
 	
 	public boolean cursorAtPartialWordEnd() {
-		return (text.properties[indexOfCursor] & (text.F_WORD_PARTIAL_END | text.F_WORDEND)) != 0;
+		return (text.properties[indexOfCursor] & (StringCursorPrimitive.F_WORD_PARTIAL_END | StringCursorPrimitive.F_WORDEND)) != 0;
 	}
 	
 	public char currentChar() {
@@ -279,7 +279,7 @@ public class StringCursor {
 	
 	public StringCursor moveCursorPreviousPartialWordStart() {
 		 while(!cursorPositionTerminal()) {
-			 if ((text.properties[indexOfCursor] & (text.F_WORD_PARTIAL_START | text.F_WORDSTART)) != 0) break;
+			 if ((text.properties[indexOfCursor] & (StringCursorPrimitive.F_WORD_PARTIAL_START | StringCursorPrimitive.F_WORDSTART)) != 0) break;
 			 indexOfCursor--;
 		 }
 		 return this;
@@ -287,7 +287,7 @@ public class StringCursor {
 	
 	public StringCursor moveCursorForwardPartialWordEnd() {
 		while(!cursorPositionTerminal()) {
-			if ((text.properties[indexOfCursor] & (text.F_WORD_PARTIAL_END | text.F_WORDEND)) != 0) break;
+			if ((text.properties[indexOfCursor] & (StringCursorPrimitive.F_WORD_PARTIAL_END | StringCursorPrimitive.F_WORDEND)) != 0) break;
 			indexOfCursor++;
 		}
 		return this;
@@ -295,7 +295,7 @@ public class StringCursor {
 	
 	public StringCursor moveCursorForwardWordEnd() {
 		 while(!cursorPositionTerminal()) {
-			 if ((text.properties[indexOfCursor] & (text.F_WORDEND)) != 0) break;
+			 if ((text.properties[indexOfCursor] & (StringCursorPrimitive.F_WORDEND)) != 0) break;
 			 indexOfCursor++;
 		 }
 		 return this;
@@ -376,7 +376,7 @@ public class StringCursor {
 	
 	public StringCursor moveCursorForwardWordStart() {
 		 while(!cursorPositionTerminal()) {
-			 if ((text.properties[indexOfCursor] & text.F_WORDSTART) == text.F_WORDSTART) break;
+			 if ((text.properties[indexOfCursor] & StringCursorPrimitive.F_WORDSTART) == StringCursorPrimitive.F_WORDSTART) break;
 			 indexOfCursor++;
 		 }
 		 return this;
@@ -384,7 +384,7 @@ public class StringCursor {
 	
 	public StringCursor moveCursorPreviousWordStart() {
 		 while(!cursorPositionTerminal()) {
-			 if ((text.properties[indexOfCursor] & text.F_WORDSTART) == text.F_WORDSTART) break;
+			 if ((text.properties[indexOfCursor] & StringCursorPrimitive.F_WORDSTART) == StringCursorPrimitive.F_WORDSTART) break;
 			 indexOfCursor--;
 		 }
 		 return this;
@@ -392,7 +392,7 @@ public class StringCursor {
 	
 	public StringCursor moveCursorForwardPartialWordStart() {
 		 while(!cursorPositionTerminal()) {
-			 if ((text.properties[indexOfCursor] & (text.F_WORDSTART | text.F_WORD_PARTIAL_START)) != 0) break;
+			 if ((text.properties[indexOfCursor] & (StringCursorPrimitive.F_WORDSTART | StringCursorPrimitive.F_WORD_PARTIAL_START)) != 0) break;
 			 indexOfCursor++;
 		 }
 		 return this;
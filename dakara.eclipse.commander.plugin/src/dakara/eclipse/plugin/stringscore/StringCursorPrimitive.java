@@ -1,46 +1,63 @@
 package dakara.eclipse.plugin.stringscore;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 
+/*
+ * Text is stored lower cased in one of two encodings:
+ * - latin1: one byte per char.  Used when every char fits in 0x00-0xFF, which is almost always the case for identifiers and paths.
+ * - text:   one char per char.  Fallback for anything else.
+ * Exactly one of the two arrays is set.  Properties only use 7 flag bits so they are always stored as bytes.
+ */
 public class StringCursorPrimitive {
-	int F_UPPERCASE = 0x1 ;
-	int F_WORD_PARTIAL_START 	= 0x1 << 1;
-	int F_WORD_PARTIAL_END 	 	= 0x1 << 2;
-	int F_ALPHA	   			 	= 0x1 << 3;
-	int F_DIGIT	   			 	= 0x1 << 4;
-	int F_WORDSTART 				= 0x1 << 5;
-	int F_WORDEND   				= 0x1 << 6;
+	static final int F_UPPERCASE = 0x1 ;
+	static final int F_WORD_PARTIAL_START 	= 0x1 << 1;
+	static final int F_WORD_PARTIAL_END 	 	= 0x1 << 2;
+	static final int F_ALPHA	   			 	= 0x1 << 3;
+	static final int F_DIGIT	   			 	= 0x1 << 4;
+	static final int F_WORDSTART 				= 0x1 << 5;
+	static final int F_WORDEND   				= 0x1 << 6;
 	
+	byte[] latin1;
 	char[] text;
-	int[] properties;
+	byte[] properties;
 	String textAsString = null;
 	
 	public StringCursorPrimitive(String text) {
 		analyzeAndTransform(text);
 	}
 	public StringCursorPrimitive(StringCursorPrimitive primitive) {
+		this.latin1 = primitive.latin1;
 		this.text = primitive.text;
 		this.properties = primitive.properties;
 	}
-	public StringCursorPrimitive(char[] text, int[] properties) {
+	private StringCursorPrimitive(byte[] latin1, char[] text, byte[] properties) {
+		this.latin1 = latin1;
 		this.text = text;
 		this.properties = properties;
 	}
 	
 	public static StringCursorPrimitive makePrimitiveWithMask(StringCursorPrimitive primitive, IntArrayList masks) {
-		char[] text = Arrays.copyOf(primitive.text, primitive.text.length);
-		int[] properties = Arrays.copyOf(primitive.properties, primitive.properties.length);
+		byte[] latin1 = primitive.latin1 != null ? Arrays.copyOf(primitive.latin1, primitive.latin1.length) : null;
+		char[] text   = primitive.text   != null ? Arrays.copyOf(primitive.text,   primitive.text.length)   : null;
+		byte[] properties = Arrays.copyOf(primitive.properties, primitive.properties.length);
 		for (int mask : masks) {
-			text[mask] = ' ';
+			if (latin1 != null) latin1[mask] = ' ';
+			else text[mask] = ' ';
 			properties[mask] = 0;
 		}
-		return new StringCursorPrimitive(text, properties);
+		return new StringCursorPrimitive(latin1, text, properties);
 	}	
 	
-	public char charAt(int index) {return text[index];}
-	public int length()	{return text.length;}
+	public boolean isLatin1() {return latin1 != null;}
+	
+	public char charAt(int index) {
+		if (latin1 != null) return (char) (latin1[index] & 0xFF);
+		return text[index];
+	}
+	public int length()	{return properties.length;}
 	
 	public int indexOf(final String string) {
 		return indexOf(string.toCharArray(), 0);
@@ -50,6 +67,8 @@ public class StringCursorPrimitive {
 	}
 	
 	public int indexOf(final char[] needle, final int startingOffset) {
+		if (latin1 != null) return indexOfLatin1(needle, startingOffset);
+		
 		final int max = text.length - needle.length+1;
 		for(int offsetForCompare = startingOffset; offsetForCompare < max; ++offsetForCompare) {
 			boolean found = true;
@@ -63,8 +82,35 @@ public class StringCursorPrimitive {
 		}
 		return -1;  
 	}  
+	
+	private int indexOfLatin1(final char[] needle, final int startingOffset) {
+		final int max = latin1.length - needle.length+1;
+		for(int offsetForCompare = startingOffset; offsetForCompare < max; ++offsetForCompare) {
+			boolean found = true;
+			for(int indexToCompare = 0; indexToCompare < needle.length; ++indexToCompare) {
+				if ((latin1[offsetForCompare+indexToCompare] & 0xFF) != needle[indexToCompare]) {
+					found = false;
+					break;
+				}
+			}
+			if (found) return offsetForCompare;
+		}
+		return -1;  
+	}
 
 	public int indexOf(final char needle, final int startingOffset) {
+		if (latin1 != null) {
+			// a char outside of latin1 can never be found in latin1 text
+			if (needle > 0xFF) return -1;
+			final byte needleByte = (byte) needle;
+	        for(int indexToCompare = 0; indexToCompare < latin1.length; ++indexToCompare) {
+	           if (latin1[indexToCompare] == needleByte) {
+	               return indexToCompare;
+	           }
+	        }
+	        return -1;
+		}
+		
         for(int indexToCompare = 0; indexToCompare < text.length; ++indexToCompare) {
            if (text[indexToCompare] == needle) {
                return indexToCompare;
@@ -75,28 +121,32 @@ public class StringCursorPrimitive {
 	
 	public String asString() {
 		if (textAsString != null) return textAsString;
-		textAsString = new String(text);
+		if (latin1 != null) textAsString = new String(latin1, StandardCharsets.ISO_8859_1);
+		else textAsString = new String(text);
 		return textAsString;
 	}
 	
 	public String substring(int start, int end) {
-		char[] subArray = new char[end - start];
-		System.arraycopy(text, start, subArray, 0, end-start);
-		return new String(subArray);
+		if (latin1 != null) return new String(latin1, start, end - start, StandardCharsets.ISO_8859_1);
+		return new String(text, start, end - start);
 	}
 	
 	private void analyzeAndTransform(String inputText) {
-		char[] originalChars = inputText.toCharArray();
-		text = new char[originalChars.length];
-		properties = new int[originalChars.length];
-		int index = 0;
-		for(char originalChar : originalChars) {
-			text[index] = (char)Character.toLowerCase((int)originalChar);
+		final int length = inputText.length();
+		// assume latin1 until we find a char that will not fit.  Then inflate to chars and continue.
+		latin1 = new byte[length];
+		properties = new byte[length];
+		for(int index = 0; index < length; index++) {
+			final char originalChar = inputText.charAt(index);
+			final char lowerCaseChar = (char)Character.toLowerCase((int)originalChar);
+			if (latin1 != null && lowerCaseChar > 0xFF) inflateToChars(index);
+			if (latin1 != null) latin1[index] = (byte) lowerCaseChar;
+			else text[index] = lowerCaseChar;
 			
 			final int charType = Character.getType((int)originalChar);
 			
 			// is character uppercase
-			if (text[index] != originalChar) properties[index] |= F_UPPERCASE;
+			if (lowerCaseChar != originalChar) properties[index] |= F_UPPERCASE;
 
 			// is character alpha
 			if (((((1 << Character.UPPERCASE_LETTER) |
@@ -117,7 +167,7 @@ public class StringCursorPrimitive {
 			}
 			
 			// is word end
-			if ((properties[index]     & F_ALPHA) == F_ALPHA && index == text.length - 1)                         // current char is alpha and is last char
+			if ((properties[index]     & F_ALPHA) == F_ALPHA && index == length - 1)                         // current char is alpha and is last char
 				properties[index] |= F_WORDEND;																	
 			else if (index > 0 && (properties[index] & F_ALPHA) == 0 && (properties[index - 1] & F_ALPHA) == F_ALPHA) {		// current char is non alpha and previous is alpha
 				properties[index - 1] |= F_WORDEND;
@@ -138,15 +188,22 @@ public class StringCursorPrimitive {
 					properties[index] |= F_WORD_PARTIAL_START;
 					properties[index-1] |= F_WORD_PARTIAL_END;
 			}
-			index++;
 		}
 	}
 	
+	private void inflateToChars(int charsConverted) {
+		text = new char[latin1.length];
+		for (int index = 0; index < charsConverted; index++) {
+			text[index] = (char) (latin1[index] & 0xFF);
+		}
+		latin1 = null;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
 		builder.append(makeRuler(F_UPPERCASE, 'U')).append('\n');
-		builder.append(text).append('\n');
+		builder.append(asString()).append('\n');
 		builder.append(makeRuler(F_WORD_PARTIAL_START, 'P').append('\n'));
 		builder.append(makeRuler(F_WORD_PARTIAL_END, 'p').append('\n'));
 		builder.append(makeRuler(F_ALPHA, 'A').append('\n'));
@@ -156,9 +213,9 @@ public class StringCursorPrimitive {
 	}
 	
 	private StringBuilder makeRuler(int propertyFlag, char propertyMarkerChar) {
-		StringBuilder builder = makeFilledBuilder(text.length, ' ');
+		StringBuilder builder = makeFilledBuilder(length(), ' ');
 		int index = 0;
-		while (index < text.length) {
+		while (index < length()) {
 			if ((properties[index] & propertyFlag) == propertyFlag)
 				builder.setCharAt(index, propertyMarkerChar);
 			index++;
@@ -28,6 +28,9 @@ import it.unimi.dsi.fastutil.ints.IntArrayList;
  *  - gaps between words or acronym
  *  - matches in middle of word
  *  
+ * - patterns:
+ *  - regex, filter starting with '~', and glob, filter starting with '*', are matched by MatchPattern
+ *  
  *  TODO - remaining match strategies to implement
  *         1) sequence matching. there can be any distance between all letters, but must be in same order. 
  *            - possibly start filter with special char '#'
@@ -50,6 +53,14 @@ public class StringScore {
 	
 	public Score scoreCombination(String match, String target) {
 		if ((match.length() == 0) || (target == null) || (target.length() == 0)) return NOT_FOUND_SCORE;
+		return scoreCombination(match, new StringCursorPrimitive(target.trim()));
+	}
+	
+	/*
+	 * Scores against an already analyzed target, such as one cached with the item.  The target must be analyzed from trimmed text.
+	 */
+	public Score scoreCombination(String match, StringCursorPrimitive targetCursorPrimitive) {
+		if ((match.length() == 0) || (targetCursorPrimitive == null)) return NOT_FOUND_SCORE;
 		
 		boolean scoreAsAcronym = false;
 		boolean scoreAsLiteral = false;
@@ -58,7 +69,6 @@ public class StringScore {
 		if (match.charAt(match.length() - 1) == ' ') scoreAsLiteral = true;
 		
 		StringCursorPrimitive matchCursorPrimitive  = new StringCursorPrimitive(match.trim());
-		StringCursorPrimitive targetCursorPrimitive = new StringCursorPrimitive(target.trim());
 		
 		final String[] words = splitWords(matchCursorPrimitive.asString());
 		Score score;
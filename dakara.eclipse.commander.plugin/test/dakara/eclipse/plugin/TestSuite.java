@@ -4,9 +4,16 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 import dakara.eclipse.plugin.baseconverter.BaseAlpha26ConverterTest;
+import dakara.eclipse.plugin.command.settings.HistoryJournalTest;
+import dakara.eclipse.plugin.command.settings.HistoryJsonTest;
+import dakara.eclipse.plugin.kavi.picklist.HighlightRunCacheTest;
 import dakara.eclipse.plugin.kavi.picklist.InputCommandTest;
 import dakara.eclipse.plugin.kavi.picklist.ListRankAndSelectorTest;
 import dakara.eclipse.plugin.kavi.picklist.ListRankAndSelectorTest2;
+import dakara.eclipse.plugin.kavi.picklist.PrefetchedCellsTest;
+import dakara.eclipse.plugin.kavi.picklist.RankedListDiffTest;
+import dakara.eclipse.plugin.kavi.picklist.SelectionModelTest;
+import dakara.eclipse.plugin.stringscore.MatchPatternTest;
 import dakara.eclipse.plugin.stringscore.StringCursorTest;
 import dakara.eclipse.plugin.stringscore.StringScoreTest;
 
@@ -17,7 +24,14 @@ import dakara.eclipse.plugin.stringscore.StringScoreTest;
 	ListRankAndSelectorTest.class,
 	ListRankAndSelectorTest2.class,
 	InputCommandTest.class,
-	BaseAlpha26ConverterTest.class
+	BaseAlpha26ConverterTest.class,
+	SelectionModelTest.class,
+	RankedListDiffTest.class,
+	HighlightRunCacheTest.class,
+	PrefetchedCellsTest.class,
+	HistoryJournalTest.class,
+	HistoryJsonTest.class,
+	MatchPatternTest.class
 })
 
 public class TestSuite {}
@@ -1,13 +1,27 @@
 package dakara.eclipse.plugin.command.settings;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import dakara.eclipse.plugin.command.Constants;
 import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
 
 public class CommandDialogPersistedSettingsTest {
-	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
 	
 	@Test
 	public void verifyHistory() {
@@ -16,6 +30,103 @@ public class CommandDialogPersistedSettingsTest {
 		Assert.assertEquals("one", settings.getHistory().get(0).getHistoryItem().field1);
 	}
 	
+	@Test
+	public void evictOldestRecentButKeepFavorites() {
+		PersistedWorkingSet<TestItem> settings = new PersistedWorkingSet<>(Constants.BUNDLE_ID, 2, item -> new HistoryKey(item.field1), historyKey -> new TestItem(historyKey.keys.get(0), null, null) );
+		settings.addToHistory(new TestItem("one", null, null));
+		settings.setHistoryPermanent(new TestItem("one", null, null), true);
+		settings.addToHistory(new TestItem("two", null, null));
+		settings.addToHistory(new TestItem("three", null, null));
+		settings.addToHistory(new TestItem("two", null, null));
+		settings.addToHistory(new TestItem("four", null, null));
+		
+		Assert.assertEquals(Arrays.asList("four", "two", "one"), settings.getHistory().stream().map(entry -> entry.getHistoryItem().field1).collect(Collectors.toList()));
+		Assert.assertTrue(settings.getHistoryEntry(new TestItem("one", null, null)).keepForever);
+		Assert.assertNull(settings.getHistoryEntry(new TestItem("three", null, null)));
+		
+		// no longer a favorite, it is again the oldest entry by history order
+		settings.setHistoryPermanent(new TestItem("one", null, null), false);
+		settings.addToHistory(new TestItem("five", null, null));
+		Assert.assertEquals(Arrays.asList("five", "four", "two"), settings.getHistory().stream().map(entry -> entry.getHistoryItem().field1).collect(Collectors.toList()));
+		Assert.assertNull(settings.getHistoryEntry(new TestItem("one", null, null)));
+	}
+	
+	@Test
+	public void resolveOnlyChangedEntries() {
+		AtomicInteger resolveCount = new AtomicInteger();
+		PersistedWorkingSet<TestItem> settings = new PersistedWorkingSet<>(Constants.BUNDLE_ID, 10, item -> new HistoryKey(item.field1), historyKey -> {
+			resolveCount.incrementAndGet();
+			return new TestItem(historyKey.keys.get(0), null, null);
+		});
+		settings.addToHistory(new TestItem("one", null, null));
+		settings.addToHistory(new TestItem("two", null, null));
+		List<TestItem> items = settings.getHistoryItems();
+		Assert.assertEquals(2, items.size());
+		Assert.assertSame(items, settings.getHistoryItems());
+		Assert.assertEquals(0, resolveCount.get());
+		
+		settings.resolveHistoryAgain();
+		Assert.assertEquals(2, settings.getHistoryItems().size());
+		Assert.assertEquals(2, resolveCount.get());
+		
+		settings.addToHistory(new TestItem("three", null, null));
+		Assert.assertEquals(3, settings.getHistory().size());
+		Assert.assertEquals(2, resolveCount.get());
+	}
+	
+	@Test
+	public void frequentlyUsedItemsHaveHigherBoost() {
+		PersistedWorkingSet<TestItem> settings = new PersistedWorkingSet<>(Constants.BUNDLE_ID, 10, item -> new HistoryKey(item.field1), historyKey -> new TestItem(historyKey.keys.get(0), null, null) );
+		TestItem often = new TestItem("often", null, null);
+		TestItem once = new TestItem("once", null, null);
+		settings.addToHistory(often).addToHistory(often).addToHistory(often).addToHistory(once);
+		
+		ToIntFunction<TestItem> boosts = settings.getFrecencyBoosts();
+		Assert.assertTrue(boosts.applyAsInt(often) > boosts.applyAsInt(once));
+		Assert.assertTrue(boosts.applyAsInt(once) > 0);
+		Assert.assertEquals(0, boosts.applyAsInt(new TestItem("never", null, null)));
+		
+		PersistedWorkingSet<TestItem>.HistoryEntry entry = settings.getHistoryEntry(often);
+		long now = System.currentTimeMillis();
+		Assert.assertEquals(entry.frecency(now) / 2, entry.frecency(now + PersistedWorkingSet.USE_HALF_LIFE_MILLIS), 0.01);
+	}
+	
+	@Test
+	public void importMergesExportedHistory() throws IOException {
+		PersistedWorkingSet<TestItem> exported = new PersistedWorkingSet<>(Constants.BUNDLE_ID, 10, item -> new HistoryKey(item.field1), historyKey -> new TestItem(historyKey.keys.get(0), null, null) );
+		for (int index = 0; index < 10000; index++) {
+			exported.setHistoryPermanent(new TestItem("favorite" + index, null, null), true);
+		}
+		exported.addToHistory(new TestItem("shared", null, null));
+		StringWriter json = new StringWriter();
+		exported.exportHistory(json);
+		
+		PersistedWorkingSet<TestItem> settings = new PersistedWorkingSet<>(Constants.BUNDLE_ID, 10, item -> new HistoryKey(item.field1), historyKey -> new TestItem(historyKey.keys.get(0), null, null) );
+		settings.addToHistory(new TestItem("favorite0", null, null));
+		settings.addToHistory(new TestItem("shared", null, null));
+		Assert.assertEquals(9999, settings.importHistory(new StringReader(json.toString())));
+		
+		List<PersistedWorkingSet<TestItem>.HistoryEntry> history = settings.getHistory();
+		Assert.assertEquals(10001, history.size());
+		Assert.assertEquals("shared", history.get(0).getHistoryItem().field1);
+		Assert.assertEquals("favorite0", history.get(1).getHistoryItem().field1);
+		Assert.assertTrue(history.get(1).keepForever);
+		Assert.assertTrue(history.get(10000).keepForever);
+	}
+	
+	@Test
+	public void unreadableJournalIsNotOverwritten() throws IOException {
+		Path file = temporaryFolder.newFile("history.journal").toPath();
+		Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6 });
+		PersistedWorkingSet<TestItem> settings = new PersistedWorkingSet<>(Constants.BUNDLE_ID, 10, item -> new HistoryKey(item.field1), historyKey -> new TestItem(historyKey.keys.get(0), null, null) );
+		settings.useJournal(new HistoryJournal(file)).load();
+		Assert.assertTrue(settings.getHistory().isEmpty());
+		
+		settings.addToHistory(new TestItem("one", null, null)).save().flush();
+		Assert.assertFalse(settings.isDirty());
+		Assert.assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6 }, Files.readAllBytes(file));
+	}
+	
 	private class TestItem {
 		public final String field1;
 		public final String field2;
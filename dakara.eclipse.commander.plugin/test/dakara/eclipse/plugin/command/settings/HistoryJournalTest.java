@@ -0,0 +1,97 @@
+package dakara.eclipse.plugin.command.settings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import dakara.eclipse.plugin.command.settings.HistoryJournal.Record;
+import dakara.eclipse.plugin.command.settings.HistoryJournal.Replay;
+import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
+
+public class HistoryJournalTest {
+	private static final HistoryKey ONE = new HistoryKey("one", "1");
+	private static final HistoryKey TWO = new HistoryKey("two", "2");
+	private static final HistoryKey THREE = new HistoryKey("three", "3");
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void replayRecordsInOrder() throws IOException {
+		HistoryJournal journal = new HistoryJournal(tempFile());
+		journal.append(Arrays.asList(Record.toFront(ONE), Record.toFront(TWO), Record.toBack(THREE), Record.keepForever(THREE, true)));
+		journal.append(Arrays.asList(Record.toFront(ONE), Record.usage(ONE, 2.5f, 1000), Record.remove(TWO), Record.contentMode("working")));
+
+		Replay replay = new HistoryJournal(journal.file()).read();
+		Assert.assertEquals(Arrays.asList(ONE, THREE), replay.keysFrontFirst());
+		Assert.assertTrue(replay.isKeepForever(THREE));
+		Assert.assertFalse(replay.isKeepForever(ONE));
+		Assert.assertEquals("working", replay.contentMode());
+		Assert.assertEquals(2.5f, replay.useScore(ONE), 0);
+		Assert.assertEquals(1000, replay.lastUsedMillis(ONE));
+		Assert.assertEquals(0, replay.lastUsedMillis(THREE));
+	}
+
+	@Test
+	public void partialRecordIsIgnoredAndCompacted() throws IOException {
+		HistoryJournal journal = new HistoryJournal(tempFile());
+		journal.append(Arrays.asList(Record.toFront(ONE), Record.toFront(TWO)));
+		try (FileChannel channel = FileChannel.open(journal.file(), StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+
+		HistoryJournal reopened = new HistoryJournal(journal.file());
+		Replay replay = reopened.read();
+		Assert.assertEquals(Arrays.asList(ONE), replay.keysFrontFirst());
+		Assert.assertTrue(reopened.needsCompaction(1));
+
+		reopened.compact(Arrays.asList(Record.toBack(ONE), Record.keepForever(ONE, true)));
+		Assert.assertFalse(reopened.needsCompaction(1));
+		Replay compacted = new HistoryJournal(journal.file()).read();
+		Assert.assertEquals(Arrays.asList(ONE), compacted.keysFrontFirst());
+		Assert.assertTrue(compacted.isKeepForever(ONE));
+	}
+
+	@Test
+	public void recordThatCannotBeDecodedEndsTheReplay() throws IOException {
+		HistoryJournal journal = new HistoryJournal(tempFile());
+		journal.append(Arrays.asList(Record.toFront(ONE), Record.toFront(TWO)));
+		try (FileChannel channel = FileChannel.open(journal.file(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			// a tail of zeros, as left by a crash after the file was extended
+			channel.write(ByteBuffer.allocate(64));
+		}
+		journal.append(Arrays.asList(Record.toFront(THREE)));
+
+		HistoryJournal reopened = new HistoryJournal(journal.file());
+		Replay replay = reopened.read();
+		Assert.assertEquals(Arrays.asList(TWO, ONE), replay.keysFrontFirst());
+		Assert.assertEquals(2, reopened.recordCount());
+		Assert.assertTrue(reopened.needsCompaction(2));
+	}
+
+	@Test
+	public void negativeStringLengthEndsTheReplay() throws IOException {
+		HistoryJournal journal = new HistoryJournal(tempFile());
+		journal.append(Arrays.asList(Record.toFront(ONE)));
+		try (FileChannel channel = FileChannel.open(journal.file(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			ByteBuffer record = ByteBuffer.allocate(6).put(HistoryJournal.TO_FRONT).put((byte) 1).putInt(-5);
+			record.flip();
+			channel.write(record);
+		}
+
+		HistoryJournal reopened = new HistoryJournal(journal.file());
+		Assert.assertEquals(Arrays.asList(ONE), reopened.read().keysFrontFirst());
+		Assert.assertTrue(reopened.needsCompaction(1));
+	}
+
+	private Path tempFile() {
+		return temporaryFolder.getRoot().toPath().resolve("history.journal");
+	}
+}
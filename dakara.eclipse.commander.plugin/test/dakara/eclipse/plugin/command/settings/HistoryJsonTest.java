@@ -0,0 +1,60 @@
+package dakara.eclipse.plugin.command.settings;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import dakara.eclipse.plugin.command.Constants;
+import dakara.eclipse.plugin.command.settings.HistoryJson.SettingsReader;
+import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
+
+public class HistoryJsonTest {
+	private final PersistedWorkingSet<String> workingSet = new PersistedWorkingSet<>(Constants.BUNDLE_ID, 10, item -> new HistoryKey(item), historyKey -> historyKey.keys.get(0));
+
+	@Test
+	public void writeAndReadInBatches() throws IOException {
+		PersistedWorkingSet<String>.HistoryEntry one = workingSet.new HistoryEntry(new HistoryKey("one", null));
+		one.keepForever = true;
+		PersistedWorkingSet<String>.HistoryEntry two = workingSet.new HistoryEntry(new HistoryKey("two", "2"));
+		two.useScore = 1.5f;
+		two.lastUsedMillis = 42;
+		PersistedWorkingSet<String>.HistoryEntry three = workingSet.new HistoryEntry(new HistoryKey("three"));
+
+		StringWriter json = new StringWriter();
+		try (JsonWriter writer = new JsonWriter(json)) {
+			HistoryJson.writeSettings(writer, workingSet, Arrays.asList(one, two, three), "working");
+		}
+
+		SettingsReader<String> settingsReader = new SettingsReader<>(new JsonReader(new StringReader(json.toString())), workingSet);
+		List<PersistedWorkingSet<String>.HistoryEntry> first = settingsReader.readEntries(2);
+		Assert.assertEquals(Arrays.asList(one, two), first);
+		Assert.assertFalse(settingsReader.isDone());
+		Assert.assertTrue(first.get(0).keepForever);
+		Assert.assertNull(first.get(0).entryId.keys.get(1));
+		Assert.assertEquals(1.5f, first.get(1).useScore, 0);
+		Assert.assertEquals(42, first.get(1).lastUsedMillis);
+		Assert.assertEquals("working", settingsReader.contentMode());
+
+		Assert.assertEquals(Arrays.asList(three), settingsReader.readEntries(Integer.MAX_VALUE));
+		Assert.assertTrue(settingsReader.isDone());
+	}
+
+	@Test
+	public void readFormatWrittenByGson() throws IOException {
+		String json = "{\"entries\":[{\"entryId\":{\"keys\":[\"a\",\"b\"]},\"keepForever\":true,\"unknown\":[1,2]}],\"contentMode\":\"discovery\"}";
+		SettingsReader<String> settingsReader = new SettingsReader<>(new JsonReader(new StringReader(json)), workingSet);
+		List<PersistedWorkingSet<String>.HistoryEntry> entries = settingsReader.readEntries(10);
+		Assert.assertEquals(new HistoryKey("a", "b"), entries.get(0).entryId);
+		Assert.assertTrue(entries.get(0).keepForever);
+		Assert.assertTrue(settingsReader.isDone());
+		Assert.assertEquals("discovery", settingsReader.contentMode());
+	}
+}
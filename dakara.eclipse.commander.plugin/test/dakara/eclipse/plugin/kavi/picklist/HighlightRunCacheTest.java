@@ -0,0 +1,38 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.swt.custom.StyleRange;
+import org.junit.Assert;
+import org.junit.Test;
+
+import dakara.eclipse.plugin.stringscore.ListRankAndFilter;
+import dakara.eclipse.plugin.stringscore.RankedItem;
+
+public class HighlightRunCacheTest {
+	private final List<String> items = Arrays.asList("abc def");
+	private final ListRankAndFilter<String> rankAndFilter = ListRankAndFilter.<String>make(item -> item).addField("name", item -> item);
+	
+	@Test
+	public void contiguousMatchesAreMergedIntoRuns() {
+		RankedItem<String> rankedItem = rankAndFilter.rankAndFilter(InputCommand.parse("abc de"), items).get(0);
+		StyleRange[] runs = HighlightRunCache.createRuns(rankedItem, 0, null);
+		Assert.assertEquals(2, runs.length);
+		Assert.assertEquals(0, runs[0].start);
+		Assert.assertEquals(3, runs[0].length);
+		Assert.assertEquals(4, runs[1].start);
+		Assert.assertEquals(2, runs[1].length);
+	}
+	
+	@Test
+	public void runsAreReusedWhileRankingIsUnchanged() {
+		HighlightRunCache<String> cache = new HighlightRunCache<>();
+		StyleRange[] first = cache.styleRanges(rankAndFilter.rankAndFilter(InputCommand.parse("abc"), items).get(0), 0, null);
+		StyleRange[] second = cache.styleRanges(rankAndFilter.rankAndFilter(InputCommand.parse("abc"), items).get(0), 0, null);
+		StyleRange[] changed = cache.styleRanges(rankAndFilter.rankAndFilter(InputCommand.parse("ab"), items).get(0), 0, null);
+		Assert.assertSame(first, second);
+		Assert.assertNotSame(first, changed);
+		Assert.assertEquals(2, changed[0].length);
+	}
+}
@@ -1,5 +1,7 @@
 package dakara.eclipse.plugin.kavi.picklist;
 
+import java.util.Arrays;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -37,4 +39,70 @@ public class InputCommandTest {
 		Assert.assertEquals("", inputCommand.getColumnFilter(0));
 		Assert.assertEquals("def", inputCommand.getColumnFilter(1));
 	}
+
+	@Test
+	public void fastSelectModifiers() {
+		InputCommand range = InputCommand.parse("abc/-ab");
+		Assert.assertTrue(range.fastSelect);
+		Assert.assertFalse(range.multiSelect);
+		Assert.assertTrue(range.selectRange);
+		Assert.assertEquals("ab", range.fastSelectIndex);
+
+		InputCommand inverse = InputCommand.parse("abc//!");
+		Assert.assertTrue(inverse.multiSelect);
+		Assert.assertTrue(inverse.inverseSelection);
+		Assert.assertEquals("", inverse.fastSelectIndex);
+
+		InputCommand all = InputCommand.parse("// ");
+		Assert.assertTrue(all.selectAll);
+		Assert.assertEquals("", all.getColumnFilter(0));
+	}
+
+	@Test
+	public void trailingSeparatorsAreDropped() {
+		InputCommand slash = InputCommand.parse("abc/");
+		Assert.assertTrue(slash.fastSelect);
+		Assert.assertNull(slash.fastSelectIndex);
+		Assert.assertEquals("abc", slash.getColumnFilter(0));
+
+		InputCommand comma = InputCommand.parse("abc,");
+		Assert.assertTrue(comma.isColumnFiltering);
+		Assert.assertEquals("abc", comma.getColumnFilter(0));
+		Assert.assertEquals("", comma.getColumnFilter(1));
+
+		InputCommand commaInSelect = InputCommand.parse("abc/1,2");
+		Assert.assertTrue(commaInSelect.isColumnFiltering);
+		Assert.assertEquals("abc", commaInSelect.getColumnFilter(0));
+		Assert.assertEquals("1,2", commaInSelect.fastSelectIndex);
+	}
+
+	@Test
+	public void parsedCommandsAreShared() {
+		Assert.assertSame(InputCommand.parse("abc,def/zz"), InputCommand.parse("abc,def/zz"));
+		InputCommand selecting = InputCommand.parse("abc,def/zz");
+		InputCommand filtering = InputCommand.parse("abc,def");
+		Assert.assertTrue(selecting.isFilterEqual(filtering));
+		Assert.assertFalse(filtering.isFilterEqual(InputCommand.parse("abc")));
+		Assert.assertFalse(InputCommand.parse("abc,").isFilterEqual(InputCommand.parse("abc")));
+	}
+
+	@Test
+	public void exclusionTermsAreRemovedFromFilter() {
+		InputCommand inputCommand = InputCommand.parse(" ab !test cd !gen/!");
+		Assert.assertEquals(" ab cd", inputCommand.getColumnFilter(0));
+		Assert.assertEquals(Arrays.asList("test", "gen"), inputCommand.getColumnExclusions(0));
+		Assert.assertEquals(Arrays.asList("test", "gen"), inputCommand.getColumnExclusions(2));
+		Assert.assertTrue(inputCommand.inverseSelection);
+
+		InputCommand columns = InputCommand.parse("!x,ab !");
+		Assert.assertEquals("", columns.getColumnFilter(0));
+		Assert.assertEquals(Arrays.asList("x"), columns.getColumnExclusions(0));
+		Assert.assertEquals("ab !", columns.getColumnFilter(1));
+		Assert.assertTrue(columns.getColumnExclusions(1).isEmpty());
+		Assert.assertTrue(columns.getColumnExclusions(5).isEmpty());
+
+		Assert.assertFalse(InputCommand.parse("ab").hasExclusions());
+		Assert.assertFalse(InputCommand.parse("ab !x").isFilterEqual(InputCommand.parse("ab")));
+		Assert.assertTrue(InputCommand.parse("ab !x").isFilterEqual(InputCommand.parse("ab !x/1")));
+	}
 }
@@ -7,8 +7,10 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import dakara.eclipse.plugin.stringscore.FieldResolver;
 import dakara.eclipse.plugin.stringscore.ListRankAndFilter;
 import dakara.eclipse.plugin.stringscore.RankedItem;
+import dakara.eclipse.plugin.stringscore.StringCursorPrimitive;
 import dakara.eclipse.plugin.stringscore.StringScore;
 import dakara.eclipse.plugin.stringscore.StringScoreRanking;
 
@@ -43,6 +45,20 @@ public class ListRankAndSelectorTest {
 		Assert.assertEquals("four", listItems.get(1).dataItem.field2);
 	}
 	
+	@Test
+	public void boostOrdersEqualScores() {
+		rankSelectorMultiColumn.setBoostResolver(item -> item.field1.equals("7") ? 10 : item.field1.equals("6") ? 5 : 0);
+		List<RankedItem<TestItem>> listItems = rankSelectorMultiColumn.rankAndFilter(InputCommand.parse("def"), itemList);
+		Assert.assertEquals("7", listItems.get(0).dataItem.field1);
+		Assert.assertEquals("6", listItems.get(1).dataItem.field1);
+		Assert.assertEquals("5", listItems.get(2).dataItem.field1);
+		
+		listItems = rankSelectorMultiColumn.rankAndFilterOrdered(InputCommand.parse(""), itemList);
+		Assert.assertEquals("7", listItems.get(0).dataItem.field1);
+		Assert.assertEquals("6", listItems.get(1).dataItem.field1);
+		Assert.assertEquals("1", listItems.get(2).dataItem.field1);
+	}
+	
 	@Test
 	public void verifyColumn2Selection2() {
 		InputCommand inputCommand = InputCommand.parse("one");
@@ -113,6 +129,43 @@ public class ListRankAndSelectorTest {
 		Assert.assertEquals(1, (listItem.getColumnScore("f1").matches.size()));
 	}
 	
+	@Test
+	public void scoresAccessibleByFieldOrdinal() {
+		InputCommand inputCommand = InputCommand.parse("def abc");
+		RankedItem<TestItem> listItem = rankSelectorMultiColumn.rankAndFilter(inputCommand, itemList).get(0);
+		final int ordinal = listItem.fieldOrdinal("f2");
+		Assert.assertEquals(1, ordinal);
+		Assert.assertEquals(3, listItem.fieldCount());
+		Assert.assertEquals(6, listItem.matchCount(ordinal));
+		Assert.assertEquals(0, listItem.matchPosition(ordinal, 0));
+		Assert.assertEquals(listItem.totalScore(), listItem.getRank(ordinal));
+	}
+	
+	@Test
+	public void analyzedFieldsRankAsText() {
+		StringScore stringScore = new StringScore(StringScoreRanking.standardContiguousSequenceRanking(), StringScoreRanking.standardAcronymRanking(), StringScoreRanking.standardNonContiguousSequenceRanking());
+		ListRankAndFilter<TestItem> analyzedRankSelector = new ListRankAndFilter<TestItem>(stringScore::scoreCombination, item -> item.field1)
+				.setAnalyzedRankingStrategy(stringScore::scoreCombination)
+				.setAllFieldsAnalyzedResolver(item -> analyze(item.field1 + " " + item.field2 + " " + item.field3));
+		analyzedRankSelector.addField(new FieldResolver<TestItem>("f1", item -> item.field1, item -> analyze(item.field1)));
+		analyzedRankSelector.addField(new FieldResolver<TestItem>("f2", item -> item.field2, item -> analyze(item.field2)));
+		analyzedRankSelector.addField(new FieldResolver<TestItem>("f3", item -> item.field3, item -> analyze(item.field3)));
+		
+		for (String filter : new String[] {"abc", "def abc", "adg", "|abc|ghi", "|def|abc|a"}) {
+			List<RankedItem<TestItem>> expected = rankSelectorMultiColumn.rankAndFilter(InputCommand.parse(filter), itemList);
+			List<RankedItem<TestItem>> actual = analyzedRankSelector.rankAndFilter(InputCommand.parse(filter), itemList);
+			Assert.assertEquals(filter, expected.size(), actual.size());
+			for (int index = 0; index < expected.size(); index++) {
+				Assert.assertTrue(filter, expected.get(index).sameRanking(actual.get(index)));
+			}
+		}
+	}
+	
+	private StringCursorPrimitive analyze(String text) {
+		if (text == null || text.trim().isEmpty()) return null;
+		return new StringCursorPrimitive(text.trim());
+	}
+	
 	private class TestItem {
 		public final String field1;
 		public final String field2;
@@ -54,6 +54,36 @@ public class ListRankAndSelectorTest2 {
 		Assert.assertEquals(1, listItems.size());
 	}
 
+	@Test
+	public void exclusionTermsRemoveRows() {
+		List<RankedItem<TestItem>> listItems = rankSelectorMultiColumn.rankAndFilter(InputCommand.parse("wizard !.JS"), itemList);
+		Assert.assertEquals(1, listItems.size());
+		Assert.assertEquals("1", listItems.get(0).dataItem.field1);
+
+		listItems = rankSelectorMultiColumn.rankAndFilterOrdered(InputCommand.parse("!wizard !en"), itemList);
+		Assert.assertEquals(1, listItems.size());
+		Assert.assertEquals("3", listItems.get(0).dataItem.field1);
+	}
+
+	@Test
+	public void exclusionTermsApplyToTheirColumn() {
+		List<RankedItem<TestItem>> listItems = rankSelectorMultiColumn.rankAndFilter(InputCommand.parse(",o !open,4"), itemList);
+		Assert.assertEquals(1, listItems.size());
+		Assert.assertEquals("3", listItems.get(0).dataItem.field1);
+	}
+
+	@Test
+	public void patternFiltersPerColumn() {
+		List<RankedItem<TestItem>> listItems = rankSelectorMultiColumn.rankAndFilter(InputCommand.parse("*.js"), itemList);
+		Assert.assertEquals(1, listItems.size());
+		Assert.assertEquals("2", listItems.get(0).dataItem.field1);
+
+		listItems = rankSelectorMultiColumn.rankAndFilter(InputCommand.parse(",~^(o)\\w+e$,4"), itemList);
+		Assert.assertEquals(1, listItems.size());
+		Assert.assertEquals("3", listItems.get(0).dataItem.field1);
+		Assert.assertEquals(1, listItems.get(0).matchCount(1));
+	}
+
 	private class TestItem {
 		public final String field1;
 		public final String field2;
@@ -0,0 +1,73 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dakara.eclipse.plugin.stringscore.ListRankAndFilter;
+import dakara.eclipse.plugin.stringscore.RankedItem;
+
+public class PrefetchedCellsTest {
+	private final List<String> items = Arrays.asList("abc", "abd", "xyz");
+	private final ListRankAndFilter<String> rankAndFilter = ListRankAndFilter.<String>make(item -> item).addField("name", item -> item);
+	private final AtomicInteger labelCalls = new AtomicInteger();
+	
+	@Test
+	public void prefetchedRowsAreLookedUp() {
+		List<RankedItem<String>> rows = rankAndFilter.rankAndFilter(InputCommand.parse(""), items);
+		KaviListColumns<String> columns = makeColumns(rows);
+		columns.prefetch(rows, -1, 2);
+		Assert.assertEquals(2, labelCalls.get());
+		
+		ColumnOptions<String> options = columns.getColumnOptions().get(0);
+		Assert.assertEquals(rows.get(0).dataItem, columns.cellText(options, rows.get(0)));
+		Assert.assertEquals(rows.get(1).dataItem, columns.cellText(options, rows.get(1)));
+		Assert.assertEquals(2, labelCalls.get());
+		
+		// not in the prefetched range
+		Assert.assertEquals(rows.get(2).dataItem, columns.cellText(options, rows.get(2)));
+		Assert.assertEquals(3, labelCalls.get());
+	}
+	
+	@Test
+	public void newRankingIsNotServedFromPrefetch() {
+		List<RankedItem<String>> rows = rankAndFilter.rankAndFilter(InputCommand.parse(""), items);
+		KaviListColumns<String> columns = makeColumns(rows);
+		columns.prefetch(rows, 0, rows.size());
+		
+		List<RankedItem<String>> newRows = rankAndFilter.rankAndFilter(InputCommand.parse(""), items);
+		PrefetchedCells<String> prefetchedCells = columns.getColumnOptions().get(0).getPrefetchedCells();
+		Assert.assertNotNull(prefetchedCells.get(rows.get(0), 0));
+		Assert.assertNull(prefetchedCells.get(newRows.get(0), 0));
+		Assert.assertNull(prefetchedCells.get(rows.get(0), 1));
+	}
+	
+	@Test
+	public void invalidatedRowsArePreparedAgain() {
+		List<RankedItem<String>> rows = rankAndFilter.rankAndFilter(InputCommand.parse(""), items);
+		KaviListColumns<String> columns = makeColumns(rows);
+		columns.prefetch(rows, 0, rows.size());
+		PrefetchedCells<String> prefetchedCells = columns.getColumnOptions().get(0).getPrefetchedCells();
+		
+		columns.invalidatePrefetchedRow(1);
+		Assert.assertNotNull(prefetchedCells.get(rows.get(0), 0));
+		Assert.assertNull(prefetchedCells.get(rows.get(1), 1));
+		
+		columns.prefetch(rows, 0, rows.size());
+		Assert.assertEquals(4, labelCalls.get());
+		columns.invalidatePrefetched();
+		Assert.assertNull(prefetchedCells.get(rows.get(0), 0));
+	}
+	
+	private KaviListColumns<String> makeColumns(List<RankedItem<String>> rows) {
+		KaviListColumns<String> columns = new KaviListColumns<>(null, item -> 0, rows::indexOf);
+		columns.addColumn("name", item -> {
+			labelCalls.incrementAndGet();
+			return item;
+		}).searchable(false);
+		return columns;
+	}
+}
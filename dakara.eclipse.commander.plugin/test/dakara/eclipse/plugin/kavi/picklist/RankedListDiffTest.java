@@ -0,0 +1,36 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dakara.eclipse.plugin.stringscore.ListRankAndFilter;
+import dakara.eclipse.plugin.stringscore.RankedItem;
+
+public class RankedListDiffTest {
+	private final List<String> items = Arrays.asList("abc def", "abd xyz", "xyz abc");
+	private final ListRankAndFilter<String> rankAndFilter = ListRankAndFilter.<String>make(item -> item).addField("name", item -> item);
+	
+	@Test
+	public void sameRankingHasNoChanges() {
+		List<RankedItem<String>> previous = rankAndFilter.rankAndFilter(InputCommand.parse("ab"), items);
+		List<RankedItem<String>> current  = rankAndFilter.rankAndFilter(InputCommand.parse("ab"), items);
+		Assert.assertEquals(0, RankedListDiff.changedRows(previous, current).length);
+	}
+	
+	@Test
+	public void changedMatchesAreReported() {
+		List<RankedItem<String>> previous = rankAndFilter.rankAndFilter(InputCommand.parse("ab"), items);
+		List<RankedItem<String>> current  = rankAndFilter.rankAndFilter(InputCommand.parse("abc"), items);
+		Assert.assertArrayEquals(new int[] {0, 1}, RankedListDiff.changedRows(previous, current));
+	}
+	
+	@Test
+	public void onlyCommonRowsAreCompared() {
+		List<RankedItem<String>> previous = rankAndFilter.rankAndFilter(InputCommand.parse(""), items);
+		List<RankedItem<String>> current  = previous.subList(0, 1);
+		Assert.assertEquals(0, RankedListDiff.changedRows(previous, current).length);
+	}
+}
@@ -0,0 +1,109 @@
+package dakara.eclipse.plugin.kavi.picklist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dakara.eclipse.plugin.stringscore.RankedItem;
+
+public class SelectionModelTest {
+	@Test
+	public void ordinalsAreOnlyKeptWhileSelected() {
+		SelectionModel<String> selectionModel = new SelectionModel<>();
+		selectionModel.publish(rows("a", "b", "c"));
+		Assert.assertEquals(0, selectionModel.ordinalCount());
+		Assert.assertFalse(selectionModel.isRowSelected(1));
+		Assert.assertEquals(2, selectionModel.rowOf(new RankedItem<>("c")));
+		Assert.assertEquals(0, selectionModel.ordinalCount());
+		
+		selectionModel.setRowSelected(1, true);
+		final int ordinal = selectionModel.ordinalOf(new RankedItem<>("b"));
+		selectionModel.publish(rows("c", "b"));
+		Assert.assertEquals(ordinal, selectionModel.ordinalOfRow(1));
+		
+		selectionModel.setRowSelected(1, false);
+		selectionModel.publish(rows("c", "b"));
+		Assert.assertEquals(0, selectionModel.ordinalCount());
+	}
+	
+	@Test
+	public void resetForgetsSelections() {
+		SelectionModel<String> selectionModel = new SelectionModel<>();
+		selectionModel.publish(rows("a", "b")).selectVisible();
+		selectionModel.reset();
+		Assert.assertEquals(0, selectionModel.selectedCount());
+		Assert.assertEquals(0, selectionModel.ordinalCount());
+		Assert.assertEquals(-1, selectionModel.rowOf(new RankedItem<>("a")));
+	}
+	
+	@Test
+	public void selectionSurvivesFilterChange() {
+		SelectionModel<String> selectionModel = new SelectionModel<>();
+		selectionModel.publish(rows("a", "b", "c"));
+		selectionModel.toggle(new RankedItem<>("b"));
+		
+		selectionModel.publish(rows("c", "b"));
+		Assert.assertTrue(selectionModel.isRowSelected(1));
+		Assert.assertFalse(selectionModel.isRowSelected(0));
+		Assert.assertEquals(1, selectionModel.selectedCount());
+	}
+	
+	@Test
+	public void bulkOperationsOnlyAffectVisibleRows() {
+		SelectionModel<String> selectionModel = new SelectionModel<>();
+		selectionModel.publish(rows("a", "b", "c", "d"));
+		selectionModel.toggle(new RankedItem<>("a"));
+		
+		selectionModel.publish(rows("b", "c"));
+		Assert.assertFalse(selectionModel.isAnyVisibleSelected());
+		selectionModel.selectVisible();
+		Assert.assertEquals(3, selectionModel.selectedCount());
+		
+		selectionModel.invertVisible();
+		Assert.assertEquals(1, selectionModel.selectedCount());
+		
+		selectionModel.invertVisible().deselectVisible();
+		Assert.assertEquals(1, selectionModel.selectedCount());
+		Assert.assertTrue(selectionModel.isSelected(new RankedItem<>("a")));
+	}
+	
+	@Test
+	public void selectedItemsIsSnapshot() {
+		SelectionModel<String> selectionModel = new SelectionModel<>();
+		selectionModel.publish(rows("a", "b", "c"));
+		List<String> selected = new ArrayList<>();
+		
+		selectionModel.selectVisible().setRowSelected(1, false);
+		Collection<RankedItem<String>> selectedItems = selectionModel.selectedItems();
+		selectedItems.forEach(item -> selected.add(item.dataItem));
+		Assert.assertEquals(Arrays.asList("a", "c"), selected);
+		
+		selectionModel.clear();
+		Assert.assertEquals(2, selectedItems.size());
+		Assert.assertTrue(selectionModel.selectedItems().isEmpty());
+	}
+	
+	@Test
+	public void rowLookupFollowsPublishedRows() {
+		SelectionModel<String> selectionModel = new SelectionModel<>();
+		selectionModel.publish(rows("a", "b", "c"));
+		Assert.assertEquals(2, selectionModel.rowOf(new RankedItem<>("c")));
+		
+		selectionModel.publish(rows("c", "b"));
+		Assert.assertEquals(0, selectionModel.rowOf(new RankedItem<>("c")));
+		Assert.assertEquals(-1, selectionModel.rowOf(new RankedItem<>("a")));
+		Assert.assertEquals(-1, selectionModel.rowOf(new RankedItem<>("never published")));
+	}
+	
+	private List<RankedItem<String>> rows(String ... items) {
+		List<RankedItem<String>> rows = new ArrayList<>();
+		for (String item : items) {
+			rows.add(new RankedItem<>(item));
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,51 @@
+package dakara.eclipse.plugin.stringscore;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import dakara.eclipse.plugin.stringscore.StringScore.Score;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+public class MatchPatternTest {
+	@Test
+	public void globMatchesWholeWords() {
+		MatchPattern glob = MatchPattern.glob("*Handler.java");
+		Score score = glob.score("CommanderHandler.java src/dakara");
+		Assert.assertEquals(3, score.rank);
+		Assert.assertEquals(21, score.matches.size());
+
+		Assert.assertTrue(glob.score("CommanderHandler.javax").rank <= 0);
+		Assert.assertTrue(glob.score("src/CommanderHandler.java").rank <= 0);
+		Assert.assertTrue(MatchPattern.glob("**Handler.java").score("src/CommanderHandler.java").rank > 0);
+		Assert.assertTrue(MatchPattern.glob("*.j?va").score("Handler.java").rank > 0);
+	}
+
+	@Test
+	public void regexHighlightsGroups() {
+		Score score = MatchPattern.regex("(open)\\w*(file)").score("doOpenTheFile");
+		Assert.assertEquals(new IntArrayList(new int[] {2, 3, 4, 5, 9, 10, 11, 12}), score.matches);
+		Assert.assertEquals(2, score.rank);
+
+		Score wholeMatch = MatchPattern.regex("o.e").score("one");
+		Assert.assertEquals(new IntArrayList(new int[] {0, 1, 2}), wholeMatch.matches);
+		Assert.assertEquals(4, wholeMatch.rank);
+	}
+
+	@Test
+	public void invalidRegexMatchesNothing() {
+		MatchPattern regex = MatchPattern.regex("open(");
+		Assert.assertFalse(regex.isValid());
+		Assert.assertTrue(regex.score("open(").rank <= 0);
+		Assert.assertSame(regex, MatchPattern.regex("open("));
+	}
+
+	@Test
+	public void mandatoryLiteralsOfRegex() {
+		Assert.assertEquals(Arrays.asList("handle", ".java"), MatchPattern.regexLiterals("^handler?\\w+\\.java$"));
+		Assert.assertEquals(Arrays.asList("ab", "d"), MatchPattern.regexLiterals("ab+[cx]d(ef)*"));
+		Assert.assertEquals(Collections.emptyList(), MatchPattern.regexLiterals("open|file"));
+	}
+}
@@ -1,6 +1,8 @@
 package dakara.eclipse.plugin.stringscore;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -25,4 +27,35 @@ public class StringCursorPrimitiveTest {
 		StringCursorPrimitive cursor = new StringCursorPrimitive("openFile TestCase first-second next.LastTime a * - + word");
 		assertEquals(18, cursor.indexOf("first".toCharArray(), 0));
 	}
+	
+	@Test
+	public void latin1TextIsStoredCompact() {
+		StringCursorPrimitive cursor = new StringCursorPrimitive("Straße openFile Ärger");
+		assertTrue(cursor.isLatin1());
+		assertEquals("straße openfile ärger", cursor.asString());
+		assertEquals('ä', cursor.charAt(16));
+		assertEquals(11, cursor.indexOf("file"));
+		assertEquals("open", cursor.substring(7, 11));
+	}
+	
+	@Test
+	public void nonLatin1TextFallsBackToChars() {
+		StringCursorPrimitive cursor = new StringCursorPrimitive("ΩmegaFile openFile");
+		assertFalse(cursor.isLatin1());
+		assertEquals("ωmegafile openfile", cursor.asString());
+		assertEquals('ω', cursor.charAt(0));
+		assertEquals(5, cursor.indexOf("file"));
+		assertEquals(14, cursor.indexOf("file", 6));
+	}
+	
+	@Test
+	public void latin1AndNonLatin1HaveSameProperties() {
+		StringCursorPrimitive latin1 = new StringCursorPrimitive("AmegaFile openFile2");
+		StringCursorPrimitive chars  = new StringCursorPrimitive("ΩmegaFile openFile2");
+		assertTrue(latin1.isLatin1());
+		assertFalse(chars.isLatin1());
+		for (int index = 0; index < latin1.length(); index++) {
+			assertEquals(latin1.properties[index], chars.properties[index]);
+		}
+	}
 }
@@ -1,7 +1,11 @@
 package dakara.eclipse.finder.plugin.handlers;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 import org.eclipse.core.commands.AbstractHandler;
@@ -17,6 +21,7 @@ import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.handlers.HandlerUtil;
 import org.eclipse.ui.ide.IDE;
 
+import dakara.eclipse.plugin.command.settings.HistoryJournal;
 import dakara.eclipse.plugin.command.settings.PersistedWorkingSet;
 import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryEntry;
 import dakara.eclipse.plugin.command.settings.PersistedWorkingSet.HistoryKey;
@@ -45,7 +50,9 @@ public class FinderHandler extends AbstractHandler implements IStartup {
 	@Override
 	public void earlyStartup() {
 		historyStore = createSettingsStore();
+		EclipseWorkbench.runBeforeShutdown(PersistedWorkingSet::flushAll);
 		IWorkbenchPage workbenchPage = PlatformUI.getWorkbench().getWorkbenchWindows()[0].getActivePage();
+		// save is written behind, switching editors does no disk I/O
 		EclipseWorkbench.createListenerForEditorFocusChanges(workbenchPage, resourceItem -> historyStore.addToHistory(resourceItem).save());
 	}
 	
@@ -59,15 +66,17 @@ public class FinderHandler extends AbstractHandler implements IStartup {
 		FieldResolver<ResourceItem> pathResolver    = new FieldResolver<>("path",    resource -> resource.path);
 		FieldResolver<ResourceItem> projectResolver = new FieldResolver<>("project", resource -> resource.project);
 		
+		ToIntFunction<ResourceItem> frecencyBoosts = historyStore.getFrecencyBoosts();
+		
 		KaviPickListDialog<ResourceItem> finder = new KaviPickListDialog<>();
-		finder.setListContentProvider("discovery", listContentProvider(listRankAndFilter(nameResolver, pathResolver, projectResolver), files))
+		finder.setListContentProvider("discovery", listContentProvider(listRankAndFilter(nameResolver, pathResolver, projectResolver).setBoostResolver(frecencyBoosts), files))
 			  .setMultiResolvedAction(resourceItems -> handleSelectionAction(historyStore, workbenchPage, workspace, resourceItems))
 			  .setShowAllWhenNoFilter(false)
 			  .addColumn(nameResolver.fieldId, nameResolver.fieldResolver).widthPercent(30)
 			  .addColumn(projectResolver.fieldId, projectResolver.fieldResolver).widthPercent(30).fontColor(155, 103, 4)
 			  .addColumn(pathResolver.fieldId, pathResolver.fieldResolver).widthPercent(40).italic().fontColor(100, 100, 100).backgroundColor(250, 250, 250);
 		
-		finder.setListContentProvider("working", listContentProviderWorkingSet(listRankAndFilter(nameResolver, pathResolver, projectResolver), historyStore, files))
+		finder.setListContentProvider("working", listContentProviderWorkingSet(listRankAndFilter(nameResolver, pathResolver, projectResolver).setBoostResolver(frecencyBoosts), historyStore, files))
 			  .setMultiResolvedAction(resourceItems -> handleSelectionAction(historyStore, workbenchPage, workspace, resourceItems))
 			  .addColumn(nameResolver.fieldId, nameResolver.fieldResolver).widthPercent(30).setMarkerIndicatorProvider(item -> { 
 					HistoryEntry historyEntry = historyStore.getHistoryEntry(item);
@@ -91,7 +100,7 @@ public class FinderHandler extends AbstractHandler implements IStartup {
 	private PersistedWorkingSet<ResourceItem> createSettingsStore() {
 		Function<HistoryKey, ResourceItem> historyItemResolver = historyKey -> new ResourceItem(historyKey.keys.get(0), historyKey.keys.get(2), historyKey.keys.get(1));
 		PersistedWorkingSet<ResourceItem> historyStore = new PersistedWorkingSet<>(Constants.BUNDLE_ID, 100, item -> new HistoryKey(item.name, item.project, item.path), historyItemResolver);
-		historyStore.load();
+		historyStore.useJournal(HistoryJournal.inStateLocation(Constants.BUNDLE_ID, "history.journal")).load();
 		
 		return historyStore;
 	}
@@ -123,11 +132,17 @@ public class FinderHandler extends AbstractHandler implements IStartup {
 	}
 	
 	public static Function<InputState, List<RankedItem<ResourceItem>>> listContentProviderWorkingSet(ListRankAndFilter<ResourceItem> listRankAndFilter, PersistedWorkingSet<ResourceItem> historyStore, List<ResourceItem> workspaceResources) {
+		// membership is checked against a hashed index, and only when the history has changed since the last call
+		final Set<ResourceItem> workspaceIndex = new HashSet<>(workspaceResources);
+		final AtomicReference<List<ResourceItem>> filteredHistoryItems = new AtomicReference<>();
+		final AtomicReference<List<ResourceItem>> workingFilesCache = new AtomicReference<>();
 		return (inputState) -> {
-			List<ResourceItem> workingFiles = historyStore.getHistory().stream()
-														 .map(historyItem -> historyItem.getHistoryItem())
-														 .filter(resourceItem -> workspaceResources.contains(resourceItem))
-														 .collect(Collectors.toList());
+			final List<ResourceItem> historyItems = historyStore.getHistoryItems();
+			if (filteredHistoryItems.get() != historyItems) {
+				workingFilesCache.set(historyItems.stream().filter(workspaceIndex::contains).collect(Collectors.toList()));
+				filteredHistoryItems.set(historyItems);
+			}
+			List<ResourceItem> workingFiles = workingFilesCache.get();
 			List<RankedItem<ResourceItem>> filteredList = listRankAndFilter.rankAndFilterOrdered(inputState.inputCommand, workingFiles);
 			return filteredList;
 		};